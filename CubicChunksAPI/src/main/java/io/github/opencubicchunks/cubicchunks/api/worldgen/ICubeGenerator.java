@@ -67,6 +67,23 @@ public interface ICubeGenerator {
      */
     CubePrimer generateCube(int cubeX, int cubeY, int cubeZ);
 
+    /**
+     * Whether {@link ICubeGenerator#generateCube(int, int, int)} can be called from threads other than the server
+     * thread. If this returns true, cube primers may be generated on worker threads, concurrently with each other and
+     * with the server thread, ahead of the cubes being needed. Only the primers are generated off the server thread,
+     * {@link ICubeGenerator#generateColumn(Chunk)} and {@link ICubeGenerator#populate(ICube)} are always called on the
+     * server thread.
+     * <p>
+     * Generators that return true must not access the world or any other state that isn't safe to share between
+     * threads from {@code generateCube}, and must generate the same primer regardless of which thread calls it and in
+     * which order cubes are generated.
+     *
+     * @return true if {@code generateCube} is thread-safe
+     */
+    default boolean isCubeGenerationThreadSafe() {
+        return false;
+    }
+
     /**
      * Generate column-global information such as biome data
      *
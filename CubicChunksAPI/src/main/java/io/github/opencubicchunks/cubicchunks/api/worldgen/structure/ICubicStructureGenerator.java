@@ -57,13 +57,13 @@ public interface ICubicStructureGenerator {
             int range, int rangeY, int spacingBitCount, int spacingBitCountY) {
 
         //TODO: maybe skip some of this stuff if the cube is empty? (would need to use hints)
-        Random rand = new Random(world.getSeed());
+        StructureGenRandom rand = StructureGenRandom.acquire(world.getSeed());
         //used to randomize contribution of each coordinate to the cube seed
         //without these swapping x/y/z coordinates would result in the same seed
         //so structures would generate symmetrically
-        long randXMul = rand.nextLong();
-        long randYMul = rand.nextLong();
-        long randZMul = rand.nextLong();
+        long randXMul = rand.randXMul;
+        long randYMul = rand.randYMul;
+        long randZMul = rand.randZMul;
 
         int spacing = 1 << spacingBitCount;
         int spacingBits = spacing - 1;
@@ -84,18 +84,22 @@ public interface ICubicStructureGenerator {
 
         long randSeed = world.getSeed();
 
-        //x/y/zOrigin is location of the structure "center", and cubeX/Y/Z is the currently generated cube
-        for (int xOrigin = cubeXOriginBase - radius; xOrigin <= cubeXOriginBase + radius; xOrigin += spacing) {
-            long randX = xOrigin * randXMul ^ randSeed;
-            for (int yOrigin = cubeYOriginBase - radiusY; yOrigin <= cubeYOriginBase + radiusY; yOrigin += spacingY) {
-                long randY = yOrigin * randYMul ^ randX;
-                for (int zOrigin = cubeZOriginBase - radius; zOrigin <= cubeZOriginBase + radius; zOrigin += spacing) {
-                    long randZ = zOrigin * randZMul ^ randY;
-                    rand.setSeed(randZ);
-                    handler.generate(world, rand, cube, xOrigin, yOrigin, zOrigin, cubePos);
+        try {
+            //x/y/zOrigin is location of the structure "center", and cubeX/Y/Z is the currently generated cube
+            for (int xOrigin = cubeXOriginBase - radius; xOrigin <= cubeXOriginBase + radius; xOrigin += spacing) {
+                long randX = xOrigin * randXMul ^ randSeed;
+                for (int yOrigin = cubeYOriginBase - radiusY; yOrigin <= cubeYOriginBase + radiusY; yOrigin += spacingY) {
+                    long randY = yOrigin * randYMul ^ randX;
+                    for (int zOrigin = cubeZOriginBase - radius; zOrigin <= cubeZOriginBase + radius; zOrigin += spacing) {
+                        long randZ = zOrigin * randZMul ^ randY;
+                        rand.setSeed(randZ);
+                        handler.generate(world, rand, cube, xOrigin, yOrigin, zOrigin, cubePos);
+                    }
                 }
-            }
 
+            }
+        } finally {
+            rand.release();
         }
     }
 
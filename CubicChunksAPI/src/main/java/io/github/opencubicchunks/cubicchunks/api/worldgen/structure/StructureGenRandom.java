@@ -0,0 +1,68 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.worldgen.structure;
+
+import java.util.Random;
+
+/**
+ * Per-thread random used by {@link ICubicStructureGenerator#generate}, so that a new one doesn't have to be created
+ * and seeded for every generated cube. It's reseeded for each structure origin.
+ */
+final class StructureGenRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<StructureGenRandom> RANDOM = ThreadLocal.withInitial(StructureGenRandom::new);
+
+    private boolean inUse;
+    private boolean hasMultipliers;
+    private long worldSeed;
+
+    long randXMul;
+    long randYMul;
+    long randZMul;
+
+    static StructureGenRandom acquire(long worldSeed) {
+        StructureGenRandom rand = RANDOM.get();
+        if (rand.inUse) {
+            // structure generation started from a handler on the same thread, can't reuse this one
+            rand = new StructureGenRandom();
+        }
+        rand.inUse = true;
+        if (!rand.hasMultipliers || rand.worldSeed != worldSeed) {
+            rand.setSeed(worldSeed);
+            rand.randXMul = rand.nextLong();
+            rand.randYMul = rand.nextLong();
+            rand.randZMul = rand.nextLong();
+            rand.worldSeed = worldSeed;
+            rand.hasMultipliers = true;
+        }
+        return rand;
+    }
+
+    void release() {
+        inUse = false;
+    }
+}
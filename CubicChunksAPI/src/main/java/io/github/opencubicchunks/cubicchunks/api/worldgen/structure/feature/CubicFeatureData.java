@@ -41,12 +41,13 @@ public class CubicFeatureData extends WorldSavedData {
      * reads in data from the NBTTagCompound into this MapDataBase
      */
     @Override
-    public void readFromNBT(NBTTagCompound nbt) {
+    public synchronized void readFromNBT(NBTTagCompound nbt) {
         this.tagCompound = nbt.getCompoundTag("Features");
     }
 
-    @Override @Nonnull public NBTTagCompound writeToNBT(NBTTagCompound compound) {
-        compound.setTag("Features", this.tagCompound);
+    @Override @Nonnull public synchronized NBTTagCompound writeToNBT(NBTTagCompound compound) {
+        // copied, structures can be added while the data is written to disk
+        compound.setTag("Features", this.tagCompound.copy());
 
         return compound;
     }
@@ -60,7 +61,7 @@ public class CubicFeatureData extends WorldSavedData {
      * @param cubeY cube Y coordinate to use as key
      * @param cubeZ cube Z coordinate to use as key
      */
-    public void writeInstance(NBTTagCompound tag, int cubeX, int cubeY, int cubeZ) {
+    public synchronized void writeInstance(NBTTagCompound tag, int cubeX, int cubeY, int cubeZ) {
         this.tagCompound.setTag(formatChunkCoords(cubeX, cubeY, cubeZ), tag);
     }
 
@@ -24,6 +24,7 @@
  */
 package io.github.opencubicchunks.cubicchunks.api.worldgen.structure.feature;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
 
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
@@ -34,18 +35,32 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.structure.ICubicStruct
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.crash.CrashReport;
 import net.minecraft.crash.CrashReportCategory;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.ReportedException;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.gen.structure.MapGenStructureIO;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 import net.minecraft.world.gen.structure.StructureComponent;
 import net.minecraft.world.gen.structure.StructureStart;
+import net.minecraft.world.storage.ISaveHandler;
+import net.minecraft.world.storage.MapStorage;
+import net.minecraftforge.common.WorldSpecificSaveHandler;
 import net.minecraftforge.common.util.Constants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -57,37 +72,97 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public abstract class CubicFeatureGenerator implements ICubicFeatureGenerator {
 
+    private static final Logger LOGGER = LogManager.getLogger("cubicchunks");
+
+    /**
+     * Size of the regions structure data is split into, as a power of 2 in cubes
+     */
+    private static final int REGION_BITS = 5;
+
+    /**
+     * Number of locks structure regions are distributed over, must be a power of 2
+     */
+    private static final int REGION_LOCK_COUNT = 64;
+
     protected final int spacingBitCount;
     protected final int spacingBitCountY;
 
-    private CubicFeatureData structureData;
+    @Nullable private volatile World structureWorld;
+
+    /**
+     * Locates the structure data files of the world. Structure data is read from them directly, as the world's
+     * {@link MapStorage} may only be used from the server thread.
+     */
+    @Nullable private ISaveHandler dataFiles;
+
+    /**
+     * All regions opened so far, by region coordinates. Regions without structure data are kept as well, so that
+     * looking them up again doesn't go to the disk.
+     */
+    private final Map<Long, StructureRegion> structureRegions = new ConcurrentHashMap<>();
+
+    /**
+     * Structure generation and loading in a region is done while holding the lock of that region, so that structures
+     * in different regions can be generated concurrently
+     */
+    private final Object[] regionLocks = new Object[REGION_LOCK_COUNT];
 
     /**
      * Used to store a list of all structures that have been recursively generated. Used so that during recursive
      * generation, the structure generator can avoid generating structures that intersect ones that have already been
      * placed.
+     * <p>
+     * Structures can be generated on several threads at once, so this class only accesses the map while holding a
+     * private lock. Subclasses can't take that lock and should not access the map directly. Starts put into it
+     * directly are also not found by structure lookups, which use a bounding box index instead.
+     *
+     * @deprecated not thread-safe to access from subclasses, kept for compatibility
      */
+    @Deprecated
     protected XYZMap<ICubicFeatureStart> structureMap = new XYZMap<>(0.5f, 1024);
 
+    private final Object structureMapLock = new Object();
+
+    /**
+     * Index of all structures in {@link #structureMap} by bounding box
+     */
+    private final CubicFeatureStartIndex structureIndex = new CubicFeatureStartIndex();
+
     protected CubicFeatureGenerator(int spacingBitCount, int spacingBitCountY) {
         this.spacingBitCount = spacingBitCount;
         this.spacingBitCountY = spacingBitCountY;
+        for (int i = 0; i < REGION_LOCK_COUNT; i++) {
+            this.regionLocks[i] = new Object();
+        }
     }
 
     @Override public void generate(World world, @Nullable CubePrimer cube, CubePos cubePos) {
         this.generate(world, cube, cubePos, this::generateFeature, 8, 8, spacingBitCount, spacingBitCountY);
     }
 
-    protected synchronized void generateFeature(World world, Random rand, @Nullable CubePrimer cube, int structureX, int structureY, int structureZ,
+    protected void generateFeature(World world, Random rand, @Nullable CubePrimer cube, int structureX, int structureY, int structureZ,
             CubePos generatedCubePos) {
         this.initializeStructureData(world);
+        int regionX = structureX >> REGION_BITS;
+        int regionY = structureY >> REGION_BITS;
+        int regionZ = structureZ >> REGION_BITS;
+        synchronized (this.getRegionLock(regionX, regionY, regionZ)) {
+            this.loadRegion(world, regionX, regionY, regionZ);
+            this.generateFeatureInRegion(world, rand, structureX, structureY, structureZ);
+        }
+    }
 
-        if (!this.structureMap.contains(structureX, structureY, structureZ)) {
+    private void generateFeatureInRegion(World world, Random rand, int structureX, int structureY, int structureZ) {
+        boolean generated;
+        synchronized (this.structureMapLock) {
+            generated = this.structureMap.contains(structureX, structureY, structureZ);
+        }
+        if (!generated) {
             rand.nextInt();
             try {
                 if (this.canSpawnStructureAtCoords(world, rand, structureX, structureY, structureZ)) {
                     StructureStart start = this.getStructureStart(world, rand, structureX, structureY, structureZ);
-                    this.structureMap.put((ICubicFeatureStart) start);
+                    this.addStructureStart((ICubicFeatureStart) start);
                     if (start.isSizeableStructure()) {
                         this.setStructureStart(structureX, structureY, structureZ, start);
                     }
@@ -104,23 +179,27 @@ public abstract class CubicFeatureGenerator implements ICubicFeatureGenerator {
         }
     }
 
-    @Override public synchronized boolean generateStructure(World world, Random rand, CubePos cubePos) {
+    @Override public boolean generateStructure(World world, Random rand, CubePos cubePos) {
         this.initializeStructureData(world);
+        this.loadRegionsAround(world, cubePos.getX(), cubePos.getY(), cubePos.getZ());
         int centerX = cubeToCenterBlock(cubePos.getX());
         int centerY = cubeToCenterBlock(cubePos.getY());
         int centerZ = cubeToCenterBlock(cubePos.getZ());
+        StructureBoundingBox cubeBox =
+                new StructureBoundingBox(centerX, centerY, centerZ, centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1);
         boolean generated = false;
-        for (ICubicFeatureStart cubicStructureStart : this.structureMap) {
+        for (ICubicFeatureStart cubicStructureStart : this.structureIndex.getIntersecting(cubeBox)) {
             StructureStart structStart = (StructureStart) cubicStructureStart;
-            // TODO: cubic chunks version of isValidForPostProcess and notifyPostProcess (mixin)
-            if (structStart.isSizeableStructure() && structStart.isValidForPostProcess(cubePos.chunkPos())
-                    && structStart.getBoundingBox().intersectsWith(
-                    new StructureBoundingBox(centerX, centerY, centerZ, centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1))) {
-                structStart.generateStructure(world, rand,
-                        new StructureBoundingBox(centerX, centerY, centerZ, centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1));
-                structStart.notifyPostProcessAt(cubePos.chunkPos());
-                generated = true;
-                this.setStructureStart(structStart.getChunkPosX(), cubicStructureStart.getChunkPosY(), structStart.getChunkPosZ(), structStart);
+            synchronized (this.getRegionLock(structStart.getChunkPosX() >> REGION_BITS,
+                    cubicStructureStart.getChunkPosY() >> REGION_BITS, structStart.getChunkPosZ() >> REGION_BITS)) {
+                // TODO: cubic chunks version of isValidForPostProcess and notifyPostProcess (mixin)
+                if (structStart.isSizeableStructure() && structStart.isValidForPostProcess(cubePos.chunkPos())) {
+                    structStart.generateStructure(world, rand,
+                            new StructureBoundingBox(centerX, centerY, centerZ, centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1));
+                    structStart.notifyPostProcessAt(cubePos.chunkPos());
+                    generated = true;
+                    this.setStructureStart(structStart.getChunkPosX(), cubicStructureStart.getChunkPosY(), structStart.getChunkPosZ(), structStart);
+                }
             }
         }
 
@@ -129,48 +208,110 @@ public abstract class CubicFeatureGenerator implements ICubicFeatureGenerator {
 
     @Override public boolean isInsideStructure(World world, BlockPos pos) {
         this.initializeStructureData(world);
+        this.loadRegionsAround(world, blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
         return this.getStructureAt(pos) != null;
     }
 
     @Nullable
     protected StructureStart getStructureAt(BlockPos pos) {
-        for (ICubicFeatureStart cubicStructureStart : this.structureMap) {
-            StructureStart start = (StructureStart) cubicStructureStart;
-
-            if (start.isSizeableStructure() && start.getBoundingBox().isVecInside(pos)) {
+        return (StructureStart) this.structureIndex.findAt(pos, cubicStart -> {
+            StructureStart start = (StructureStart) cubicStart;
+            if (start.isSizeableStructure()) {
                 for (StructureComponent component : start.getComponents()) {
                     if (component.getBoundingBox().isVecInside(pos)) {
-                        return start;
+                        return true;
                     }
                 }
             }
-        }
-        return null;
+            return false;
+        });
     }
 
     @Override public boolean isPositionInStructure(World world, BlockPos pos) {
         this.initializeStructureData(world);
-        for (ICubicFeatureStart cubicStart : this.structureMap) {
-            StructureStart start = (StructureStart) cubicStart;
-            if (start.isSizeableStructure() && start.getBoundingBox().isVecInside(pos)) {
-                return true;
+        this.loadRegionsAround(world, blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
+        return this.structureIndex.findAt(pos, start -> ((StructureStart) start).isSizeableStructure()) != null;
+    }
+
+    protected void initializeStructureData(World world) {
+        if (this.structureWorld != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.structureWorld != null) {
+                return;
+            }
+            if (world instanceof WorldServer) {
+                this.dataFiles = new WorldSpecificSaveHandler((WorldServer) world, world.getSaveHandler());
             }
+            this.migrateLegacyStructureData(world);
+            this.structureWorld = world;
         }
-        return false;
     }
 
-    protected void initializeStructureData(World world) {
-        if (this.structureData != null) {
+    /**
+     * Moves structures from the old format, where all structures of this type were in a single file, into region
+     * files. Structure starts are only created when their region is loaded.
+     */
+    private void migrateLegacyStructureData(World world) {
+        CubicFeatureData legacyData = this.readData(this.getStructureName());
+        if (legacyData == null || legacyData.getTagCompound().hasNoTags()) {
             return;
         }
-        this.structureData = (CubicFeatureData) world.getPerWorldStorage().getOrLoadData(CubicFeatureData.class, this.getStructureName());
+        NBTTagCompound nbttagcompound = legacyData.getTagCompound();
+        for (String s : new ArrayList<>(nbttagcompound.getKeySet())) {
+            NBTBase nbtbase = nbttagcompound.getTag(s);
+
+            if (nbtbase.getId() == Constants.NBT.TAG_COMPOUND) {
+                NBTTagCompound tag = (NBTTagCompound) nbtbase;
+
+                if (tag.hasKey("ChunkX") && tag.hasKey("ChunkY") && tag.hasKey("ChunkZ")) {
+                    int chunkX = tag.getInteger("ChunkX");
+                    int chunkY = tag.getInteger("ChunkY");
+                    int chunkZ = tag.getInteger("ChunkZ");
+                    StructureRegion region = this.openRegion(chunkX >> REGION_BITS, chunkY >> REGION_BITS, chunkZ >> REGION_BITS);
+                    this.writeToRegion(world, region, tag, chunkX, chunkY, chunkZ);
+                }
+            }
+            nbttagcompound.removeTag(s);
+        }
+        // the emptied file is saved together with the regions, and marks the migration as done
+        legacyData.markDirty();
+        this.registerData(world, legacyData);
+        LOGGER.info("Migrated {} structure data to region files", this.getStructureName());
+    }
 
-        if (this.structureData == null) {
-            this.structureData = new CubicFeatureData(this.getStructureName());
-            world.getPerWorldStorage().setData(this.getStructureName(), this.structureData);
-        } else {
-            NBTTagCompound nbttagcompound = this.structureData.getTagCompound();
+    private void loadRegionsAround(World world, int cubeX, int cubeY, int cubeZ) {
+        int regionX = cubeX >> REGION_BITS;
+        int regionY = cubeY >> REGION_BITS;
+        int regionZ = cubeZ >> REGION_BITS;
+        // structures from neighbouring regions can extend into this one
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    StructureRegion region = this.structureRegions.get(regionKey(regionX + dx, regionY + dy, regionZ + dz));
+                    if (region == null || !region.startsLoaded) {
+                        synchronized (this.getRegionLock(regionX + dx, regionY + dy, regionZ + dz)) {
+                            this.loadRegion(world, regionX + dx, regionY + dy, regionZ + dz);
+                        }
+                    }
+                }
+            }
+        }
+    }
 
+    /**
+     * Loads structure starts of the given region if they're not loaded yet. Must be called while holding the lock of
+     * the region.
+     */
+    private StructureRegion loadRegion(World world, int regionX, int regionY, int regionZ) {
+        StructureRegion region = this.openRegion(regionX, regionY, regionZ);
+        if (region.startsLoaded) {
+            return region;
+        }
+        CubicFeatureData regionData = region.data;
+        if (regionData != null) {
+            NBTTagCompound nbttagcompound = regionData.getTagCompound();
             for (String s : nbttagcompound.getKeySet()) {
                 NBTBase nbtbase = nbttagcompound.getTag(s);
 
@@ -181,20 +322,123 @@ public abstract class CubicFeatureGenerator implements ICubicFeatureGenerator {
                         StructureStart structurestart = MapGenStructureIO.getStructureStart(tag, world);
 
                         if (structurestart != null) {
-                            this.structureMap.put((ICubicFeatureStart) structurestart);
+                            this.addStructureStart((ICubicFeatureStart) structurestart);
                         }
                     }
                 }
             }
         }
+        region.startsLoaded = true;
+        return region;
+    }
+
+    /**
+     * Returns the region, reading its data the first time. Regions that don't have any data don't get any here, so
+     * that lookups don't create and save empty files.
+     */
+    private StructureRegion openRegion(int regionX, int regionY, int regionZ) {
+        long key = regionKey(regionX, regionY, regionZ);
+        StructureRegion region = this.structureRegions.get(key);
+        if (region != null) {
+            return region;
+        }
+        String name = this.getStructureName() + "_r." + regionX + "." + regionY + "." + regionZ;
+        region = new StructureRegion(name, this.readData(name));
+        this.structureRegions.put(key, region);
+        return region;
+    }
+
+    /**
+     * Writes a structure to the data of the region, creating the data when the first structure is written to a region
+     * without data. Must be called while holding the lock of the region.
+     */
+    private void writeToRegion(World world, StructureRegion region, NBTTagCompound tag, int chunkX, int chunkY, int chunkZ) {
+        CubicFeatureData regionData = region.data;
+        if (regionData == null) {
+            regionData = new CubicFeatureData(region.name);
+            region.data = regionData;
+        }
+        regionData.writeInstance(tag, chunkX, chunkY, chunkZ);
+        regionData.markDirty();
+        if (!region.registered) {
+            region.registered = true;
+            this.registerData(world, regionData);
+        }
+    }
+
+    /**
+     * Reads saved structure data the same way {@link MapStorage} does, without going through the world's MapStorage.
+     *
+     * @return the data, or null if there is none
+     */
+    @Nullable
+    private CubicFeatureData readData(String name) {
+        File file = this.dataFiles == null ? null : this.dataFiles.getMapFileFromName(name);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            NBTTagCompound nbt = CompressedStreamTools.readCompressed(in);
+            CubicFeatureData data = new CubicFeatureData(name);
+            data.readFromNBT(nbt.getCompoundTag("data"));
+            return data;
+        } catch (IOException e) {
+            LOGGER.error("Could not read structure data {}", name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds modified structure data to the world's {@link MapStorage}, which saves it together with the world. The
+     * MapStorage may only be used from the server thread, so structures generated on other threads hand this to it.
+     */
+    private void registerData(World world, CubicFeatureData data) {
+        MinecraftServer server = world.getMinecraftServer();
+        if (server != null) {
+            // runs right away when called from the server thread
+            server.addScheduledTask(() -> world.getPerWorldStorage().setData(data.mapName, data));
+        }
+    }
+
+    private static long regionKey(int regionX, int regionY, int regionZ) {
+        return ((long) regionX & 0x1FFFFF) << 42 | ((long) regionY & 0x1FFFFF) << 21 | (long) regionZ & 0x1FFFFF;
+    }
+
+    private Object getRegionLock(int regionX, int regionY, int regionZ) {
+        long hash = regionKey(regionX, regionY, regionZ) * 0x9E3779B97F4A7C15L;
+        return this.regionLocks[(int) (hash >>> 32) & (REGION_LOCK_COUNT - 1)];
+    }
+
+    private void addStructureStart(ICubicFeatureStart start) {
+        synchronized (this.structureMapLock) {
+            this.structureMap.put(start);
+        }
+        this.structureIndex.add(start);
     }
 
     private void setStructureStart(int chunkX, int chunkY, int chunkZ, StructureStart start) {
-        this.structureData.writeInstance(start.writeStructureComponentsToNBT(chunkX, chunkZ), chunkX, chunkY, chunkZ);
-        this.structureData.markDirty();
+        StructureRegion region = this.loadRegion(this.structureWorld,
+                chunkX >> REGION_BITS, chunkY >> REGION_BITS, chunkZ >> REGION_BITS);
+        this.writeToRegion(this.structureWorld, region, start.writeStructureComponentsToNBT(chunkX, chunkZ), chunkX, chunkY, chunkZ);
     }
 
     protected abstract boolean canSpawnStructureAtCoords(World world, Random rand, int chunkX, int chunkY, int chunkZ);
 
     protected abstract StructureStart getStructureStart(World world, Random rand, int chunkX, int chunkY, int chunkZ);
+
+    private static final class StructureRegion {
+
+        private final String name;
+        // null until the first structure is written if the region has no data yet
+        @Nullable private volatile CubicFeatureData data;
+        // set once all structure starts of the region have been added
+        private volatile boolean startsLoaded;
+        // set once the data has been handed to the world's MapStorage for saving
+        private boolean registered;
+
+        StructureRegion(String name, @Nullable CubicFeatureData data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
 }
\ No newline at end of file
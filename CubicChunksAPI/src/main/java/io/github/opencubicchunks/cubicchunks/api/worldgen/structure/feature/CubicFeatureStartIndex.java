@@ -0,0 +1,157 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.worldgen.structure.feature;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+import net.minecraft.world.gen.structure.StructureStart;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Spatial index of structure starts by their bounding boxes, so that structure lookups don't have to test every
+ * structure that has ever been generated in the world. Each structure is stored in all cells of a coarse grid that
+ * its bounding box intersects.
+ * <p>
+ * All methods are synchronized, structures may be added from terrain generation threads.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class CubicFeatureStartIndex {
+
+    // 128 blocks, most structures intersect only a few cells
+    private static final int CELL_BITS = 7;
+    // structures spanning more cells than this are kept in a separate list that is always checked
+    private static final long MAX_CELLS_PER_START = 512;
+
+    private final Map<Long, List<ICubicFeatureStart>> cells = new HashMap<>();
+    private final List<ICubicFeatureStart> oversized = new ArrayList<>();
+
+    synchronized void add(ICubicFeatureStart start) {
+        StructureBoundingBox box = ((StructureStart) start).getBoundingBox();
+        int minX = box.minX >> CELL_BITS, minY = box.minY >> CELL_BITS, minZ = box.minZ >> CELL_BITS;
+        int maxX = box.maxX >> CELL_BITS, maxY = box.maxY >> CELL_BITS, maxZ = box.maxZ >> CELL_BITS;
+        long cellCount = (maxX - minX + 1L) * (maxY - minY + 1L) * (maxZ - minZ + 1L);
+        if (cellCount > MAX_CELLS_PER_START) {
+            oversized.add(start);
+            return;
+        }
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    List<ICubicFeatureStart> cell = cells.computeIfAbsent(key(x, y, z), k -> new ArrayList<>(2));
+                    // cell keys can only collide for coordinates far outside of the world border
+                    if (cell.isEmpty() || cell.get(cell.size() - 1) != start) {
+                        cell.add(start);
+                    }
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        cells.clear();
+        oversized.clear();
+    }
+
+    /**
+     * Returns the first structure start containing the given position in its bounding box that matches the filter
+     *
+     * @param pos the position
+     * @param filter additional condition for the structure start
+     * @return the structure start, or null if none is found
+     */
+    @Nullable
+    synchronized ICubicFeatureStart findAt(BlockPos pos, Predicate<ICubicFeatureStart> filter) {
+        List<ICubicFeatureStart> cell = cells.getOrDefault(
+                key(pos.getX() >> CELL_BITS, pos.getY() >> CELL_BITS, pos.getZ() >> CELL_BITS), Collections.emptyList());
+        ICubicFeatureStart found = findAt(cell, pos, filter);
+        return found != null ? found : findAt(oversized, pos, filter);
+    }
+
+    @Nullable
+    private static ICubicFeatureStart findAt(List<ICubicFeatureStart> starts, BlockPos pos, Predicate<ICubicFeatureStart> filter) {
+        for (ICubicFeatureStart start : starts) {
+            if (((StructureStart) start).getBoundingBox().isVecInside(pos) && filter.test(start)) {
+                return start;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all structure starts with a bounding box intersecting the given box, each one exactly once
+     *
+     * @param box the box
+     * @return list of the structure starts
+     */
+    synchronized List<ICubicFeatureStart> getIntersecting(StructureBoundingBox box) {
+        List<ICubicFeatureStart> found = new ArrayList<>();
+        int minX = box.minX >> CELL_BITS, minY = box.minY >> CELL_BITS, minZ = box.minZ >> CELL_BITS;
+        int maxX = box.maxX >> CELL_BITS, maxY = box.maxY >> CELL_BITS, maxZ = box.maxZ >> CELL_BITS;
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    List<ICubicFeatureStart> cell = cells.get(key(x, y, z));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (ICubicFeatureStart start : cell) {
+                        StructureBoundingBox startBox = ((StructureStart) start).getBoundingBox();
+                        if (!startBox.intersectsWith(box)) {
+                            continue;
+                        }
+                        // a structure can be in more than one of the cells, only take it from the cell that contains
+                        // the minimum corner of the intersection
+                        if (Math.max(startBox.minX, box.minX) >> CELL_BITS == x
+                                && Math.max(startBox.minY, box.minY) >> CELL_BITS == y
+                                && Math.max(startBox.minZ, box.minZ) >> CELL_BITS == z) {
+                            found.add(start);
+                        }
+                    }
+                }
+            }
+        }
+        for (ICubicFeatureStart start : oversized) {
+            if (((StructureStart) start).getBoundingBox().intersectsWith(box)) {
+                found.add(start);
+            }
+        }
+        return found;
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((long) x & 0x1FFFFF) << 42 | ((long) y & 0x1FFFFF) << 21 | (long) z & 0x1FFFFF;
+    }
+}
@@ -268,6 +268,8 @@ jmh {
     warmupIterations = 10
     profilers = listOf("perfasm")
     jmhVersion = "1.17.1"
+    resultFormat = "JSON"
+    resultsFile = file("$buildDir/reports/jmh/results.json")
 }
 
 javadoc.apply {
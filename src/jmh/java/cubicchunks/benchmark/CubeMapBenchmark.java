@@ -0,0 +1,177 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.benchmark;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.ticket.TicketList;
+import io.github.opencubicchunks.cubicchunks.core.world.EntityContainer;
+import io.github.opencubicchunks.cubicchunks.core.world.column.CubeMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the per-column {@link CubeMap}. Cubes are created without a world, only the parts of the cube the map
+ * touches (y coordinate, storage and tickets) are set up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CubeMapBenchmark {
+
+    private static final long SEED = 0x5EED_CAFEL;
+
+    /**
+     * Number of loaded cubes in the column. 16 is a normal vertical view distance, 256 a tall column with forced cubes.
+     */
+    @Param({"16", "64", "256"})
+    public int cubes;
+
+    /**
+     * Fraction of cubes that has a ticking ticket.
+     */
+    @Param({"0.5"})
+    public double ticking;
+
+    private BenchCube[] shuffled;
+    private CubeMap filled;
+    private int[] rangeStarts;
+    private int rangeIdx;
+
+    @Setup
+    public void setup() {
+        Bootstrap.register();
+        Random rand = new Random(SEED);
+        shuffled = new BenchCube[cubes];
+        int minY = -cubes / 2;
+        for (int i = 0; i < cubes; i++) {
+            BenchCube cube = new BenchCube(minY + i, rand.nextInt(4) != 0);
+            cube.tickets.ticking = rand.nextDouble() < ticking;
+            shuffled[i] = cube;
+        }
+        XYZMapBenchmark.shuffle(shuffled, rand);
+
+        filled = new CubeMap();
+        for (BenchCube cube : shuffled) {
+            filled.put(cube);
+        }
+
+        rangeStarts = new int[1024];
+        for (int i = 0; i < rangeStarts.length; i++) {
+            rangeStarts[i] = minY + rand.nextInt(cubes);
+        }
+    }
+
+    @Benchmark
+    public CubeMap put() {
+        CubeMap map = new CubeMap();
+        for (BenchCube cube : shuffled) {
+            map.put(cube);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public void removeAndPut() {
+        CubeMap map = filled;
+        for (BenchCube cube : shuffled) {
+            map.remove(cube.getY());
+            map.put(cube);
+        }
+    }
+
+    /**
+     * Iterates a range as big as the vertical view distance, top to bottom like the skylight code does.
+     */
+    @Benchmark
+    public void cubesRange(Blackhole bh) {
+        int start = rangeStarts[rangeIdx++ & (rangeStarts.length - 1)];
+        for (Cube cube : filled.cubes(start + 8, start - 8)) {
+            bh.consume(cube);
+        }
+    }
+
+    /**
+     * The common case: nothing changed since the last call.
+     */
+    @Benchmark
+    public ExtendedBlockStorage[] getStoragesToTick() {
+        return filled.getStoragesToTick();
+    }
+
+    /**
+     * One cube starts or stops ticking between calls, so the cached array has to be rebuilt.
+     */
+    @Benchmark
+    public ExtendedBlockStorage[] getStoragesToTickInvalidated() {
+        BenchCube cube = shuffled[rangeIdx++ % cubes];
+        cube.tickets.ticking = !cube.tickets.ticking;
+        return filled.getStoragesToTick();
+    }
+
+    private static final class BenchTickets extends TicketList {
+
+        private boolean ticking;
+
+        BenchTickets() {
+            super(null);
+        }
+
+        @Override public boolean shouldTick() {
+            return ticking;
+        }
+    }
+
+    private static final class BenchCube extends Cube {
+
+        private final BenchTickets tickets;
+
+        BenchCube(int cubeY, boolean hasStorage) {
+            this(new BenchTickets(), cubeY, hasStorage);
+        }
+
+        private BenchCube(BenchTickets tickets, int cubeY, boolean hasStorage) {
+            super(tickets, null, null, new CubePos(0, cubeY, 0),
+                    hasStorage ? new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), true) : null,
+                    new EntityContainer(), new HashMap<>(), new ConcurrentLinkedQueue<>(), null);
+            this.tickets = tickets;
+        }
+    }
+}
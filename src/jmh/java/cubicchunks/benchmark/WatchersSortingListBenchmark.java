@@ -0,0 +1,165 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.benchmark;
+
+import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link WatchersSortingList#sort()} the way PlayerCubeMap uses it: every call the players move a bit, some
+ * watchers drop out at the edge of the view distance and new ones get appended, then the list is re-sorted by distance
+ * to the closest player.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WatchersSortingListBenchmark {
+
+    private static final long SEED = 0x5EED_50E7L;
+
+    /**
+     * PlayerCubeMap sorts at most every 4 ticks, a running player covers roughly 1 block per tick.
+     */
+    private static final double MAX_MOVE_PER_SORT = 4.0;
+
+    @Param({"1000", "10000", "50000"})
+    public int watchers;
+
+    @Param({"1", "10"})
+    public int players;
+
+    /**
+     * Fraction of the watchers that is replaced between sorts, like cubes leaving and entering the view distance.
+     */
+    @Param({"0.01", "0.1"})
+    public double churn;
+
+    private Random rand;
+    private double[] playerPos;
+    private double[] playerVel;
+    private WatchersSortingList<Watcher> list;
+    private ArrayDeque<Watcher> live;
+
+    @Setup
+    public void setup() {
+        rand = new Random(SEED);
+        playerPos = new double[players * 3];
+        playerVel = new double[players * 3];
+        for (int i = 0; i < players; i++) {
+            playerPos[i * 3] = rand.nextGaussian() * 64;
+            playerPos[i * 3 + 1] = 64 + rand.nextGaussian() * 16;
+            playerPos[i * 3 + 2] = rand.nextGaussian() * 64;
+            randomizeVelocity(i);
+        }
+        list = new WatchersSortingList<>(Comparator.comparingDouble(Watcher::getClosestPlayerDistance));
+        live = new ArrayDeque<>(watchers);
+        for (int i = 0; i < watchers; i++) {
+            Watcher w = randomWatcher();
+            list.appendToEnd(w);
+            live.addLast(w);
+        }
+        list.sort();
+    }
+
+    @Benchmark
+    public WatchersSortingList<Watcher> moveAndSort() {
+        for (int i = 0; i < players; i++) {
+            if (rand.nextInt(32) == 0) {
+                randomizeVelocity(i);
+            }
+            playerPos[i * 3] += playerVel[i * 3];
+            playerPos[i * 3 + 1] += playerVel[i * 3 + 1];
+            playerPos[i * 3 + 2] += playerVel[i * 3 + 2];
+        }
+        int replaced = (int) (watchers * churn);
+        for (int i = 0; i < replaced; i++) {
+            list.remove(live.pollFirst());
+            Watcher w = randomWatcher();
+            // new watchers close to the player are added to the start, like in PlayerCubeMap
+            if (rand.nextBoolean()) {
+                list.appendToStart(w);
+            } else {
+                list.appendToEnd(w);
+            }
+            live.addLast(w);
+        }
+        list.sort();
+        return list;
+    }
+
+    private void randomizeVelocity(int player) {
+        double speed = rand.nextDouble() * MAX_MOVE_PER_SORT;
+        double yaw = rand.nextDouble() * Math.PI * 2;
+        playerVel[player * 3] = Math.cos(yaw) * speed;
+        playerVel[player * 3 + 1] = rand.nextGaussian() * 0.1 * speed;
+        playerVel[player * 3 + 2] = Math.sin(yaw) * speed;
+    }
+
+    private Watcher randomWatcher() {
+        int player = rand.nextInt(players);
+        return new Watcher(
+                (int) playerPos[player * 3] + rand.nextInt(257) - 128,
+                (int) playerPos[player * 3 + 1] + rand.nextInt(257) - 128,
+                (int) playerPos[player * 3 + 2] + rand.nextInt(257) - 128);
+    }
+
+    final class Watcher {
+
+        private final int blockX, blockY, blockZ;
+
+        Watcher(int blockX, int blockY, int blockZ) {
+            this.blockX = blockX;
+            this.blockY = blockY;
+            this.blockZ = blockZ;
+        }
+
+        // same computation as CubeWatcher.getClosestPlayerDistance
+        double getClosestPlayerDistance() {
+            double min = Double.MAX_VALUE;
+            for (int i = 0; i < players; i++) {
+                double dx = blockX - playerPos[i * 3];
+                double dy = blockY - playerPos[i * 3 + 1];
+                double dz = blockZ - playerPos[i * 3 + 2];
+                double dist = dx * dx + dy * dy + dz * dz;
+                if (dist < min) {
+                    min = dist;
+                }
+            }
+            return min;
+        }
+    }
+}
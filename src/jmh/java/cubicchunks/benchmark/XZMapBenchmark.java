@@ -0,0 +1,152 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.benchmark;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XZMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link XZMap}. Entries are spread over a square around the origin, like loaded columns around a group
+ * of players.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XZMapBenchmark {
+
+    private static final long SEED = 0x5EED_C0BEL;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private Entry[] entries;
+    private Entry[] missing;
+    private XZMap<Entry> filled;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(SEED);
+        int radius = (int) Math.ceil(Math.sqrt(size * 2.0) / 2);
+
+        XZMap<Entry> unique = new XZMap<>(0.7f, size);
+        while (unique.getSize() < size) {
+            unique.put(new Entry(
+                    rand.nextInt(radius * 2) - radius,
+                    rand.nextInt(radius * 2) - radius));
+        }
+        entries = new Entry[size];
+        int i = 0;
+        for (Entry e : unique) {
+            entries[i++] = e;
+        }
+        XYZMapBenchmark.shuffle(entries, rand);
+
+        missing = new Entry[size];
+        for (int j = 0; j < size; j++) {
+            // entries are always within +-radius, so this is guaranteed to miss
+            missing[j] = new Entry(entries[j].x + radius * 4, entries[j].z);
+        }
+
+        filled = new XZMap<>(0.7f, 10);
+        for (Entry e : entries) {
+            filled.put(e);
+        }
+    }
+
+    @Benchmark
+    public XZMap<Entry> put() {
+        XZMap<Entry> map = new XZMap<>(0.7f, 10);
+        for (Entry e : entries) {
+            map.put(e);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public void getHit(Blackhole bh) {
+        XZMap<Entry> map = filled;
+        for (Entry e : entries) {
+            bh.consume(map.get(e.x, e.z));
+        }
+    }
+
+    @Benchmark
+    public void getMiss(Blackhole bh) {
+        XZMap<Entry> map = filled;
+        for (Entry e : missing) {
+            bh.consume(map.get(e.x, e.z));
+        }
+    }
+
+    /**
+     * Removes every entry and puts it back. The map ends in the same state it started in, so no per-invocation setup
+     * is needed.
+     */
+    @Benchmark
+    public void removeAndPut() {
+        XZMap<Entry> map = filled;
+        for (Entry e : entries) {
+            map.remove(e.x, e.z);
+            map.put(e);
+        }
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        for (Entry e : filled) {
+            bh.consume(e);
+        }
+    }
+
+    static final class Entry implements XZAddressable {
+
+        final int x, z;
+
+        Entry(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.VanillaCompatibilityGe
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldSettings;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IIntegratedServer;
 import io.github.opencubicchunks.cubicchunks.core.client.ClientEventHandler;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.util.CompatHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.SideUtils;
@@ -50,6 +51,7 @@ import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.network.NetworkCheckHandler;
 import net.minecraftforge.fml.common.versioning.ArtifactVersion;
@@ -149,6 +151,11 @@ public class CubicChunks {
         );
     }
     
+    @EventHandler
+    public void onServerStopped(FMLServerStoppedEvent event) {
+        LightingManager.shutdownAsyncLighting();
+    }
+
     @SubscribeEvent
     public static void registerRegistries(RegistryEvent.NewRegistry evt) {
         VanillaCompatibilityGeneratorProviderBase.init();
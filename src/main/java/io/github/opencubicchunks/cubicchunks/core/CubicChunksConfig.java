@@ -158,6 +158,73 @@ public class CubicChunksConfig {
     @Config.RangeInt(min = 16, max = CubicChunks.MAX_SUPPORTED_BLOCK_Y)
     public static int defaultMaxHeight = 1 << 30;
 
+    @Config.LangKey("cubicchunks.config.io_writer_threads")
+    @Config.Comment("Number of threads writing cubes and columns to disk. Writes to different region files can run in parallel, "
+            + "writes to one region file always happen on the same thread.")
+    @Config.RangeInt(min = 1, max = 64)
+    @Config.RequiresMcRestart
+    public static int ioWriterThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    @Config.LangKey("cubicchunks.config.save_queue_max_entries")
+    @Config.Comment("Maximum number of cubes and columns waiting to be written to disk. When reached, generating new cubes for players "
+            + "and unloading modified cubes is paused until the writer threads catch up.")
+    @Config.RangeInt(min = 1000)
+    public static int saveQueueMaxEntries = 50000;
+
+    @Config.LangKey("cubicchunks.config.save_queue_max_megabytes")
+    @Config.Comment("Maximum approximate compressed size in megabytes of cubes and columns waiting to be written to disk. When reached, "
+            + "generating new cubes for players and unloading modified cubes is paused until the writer threads catch up.")
+    @Config.RangeInt(min = 16)
+    public static int saveQueueMaxMegabytes = 256;
+
+    @Config.LangKey("cubicchunks.config.recent_cube_cache_megabytes")
+    @Config.Comment("Size in megabytes of the in-memory cache of compressed data of recently loaded, saved and unloaded cubes. Reduces disk "
+            + "reads when players move back and forth near the edge of their view distance. 0 disables the cache.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresWorldRestart
+    public static int recentCubeCacheMegabytes = 64;
+
+    @Config.LangKey("cubicchunks.config.async_load_tick_budget")
+    @Config.Comment("Maximum time in milliseconds spent each world tick on finishing cubes and columns loaded by the async IO threads "
+            + "(adding entities and tile entities to the world, running load callbacks). Loads that don't fit are finished in the next tick.")
+    @Config.RangeInt(min = 1, max = 1000)
+    public static int asyncLoadTickBudgetMillis = 10;
+
+    @Config.LangKey("cubicchunks.config.io_min_threads")
+    @Config.Comment("Minimum number of threads in each of the cube and column loading thread pools.")
+    @Config.RangeInt(min = 1, max = 64)
+    public static int ioMinThreads = 1;
+
+    @Config.LangKey("cubicchunks.config.io_max_threads")
+    @Config.Comment("Maximum number of threads in each of the cube and column loading thread pools. The pools grow when loads wait "
+            + "longer than the target wait time while all threads are busy, and shrink again when they are mostly idle.")
+    @Config.RangeInt(min = 1, max = 64)
+    public static int ioMaxThreads = 4;
+
+    @Config.LangKey("cubicchunks.config.io_target_wait")
+    @Config.Comment("Target time in milliseconds a queued cube or column load waits before a loading thread picks it up. "
+            + "Lower values make the loading thread pools grow sooner.")
+    @Config.RangeInt(min = 1, max = 10000)
+    public static int ioTargetWaitMillis = 50;
+
+    @Config.LangKey("cubicchunks.config.concurrent_cube_generation")
+    @Config.Comment("Generate the terrain of new cubes on worker threads ahead of time, for world generators that declare their cube "
+            + "generation thread-safe. Population and lighting still run on the server thread.")
+    public static boolean concurrentCubeGeneration = true;
+
+    @Config.LangKey("cubicchunks.config.cube_generation_threads")
+    @Config.Comment("Number of worker threads generating cube terrain when concurrent cube generation is used. 0 uses half of the "
+            + "available processors.")
+    @Config.RangeInt(min = 0, max = 64)
+    @Config.RequiresMcRestart
+    public static int cubeGenerationThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.async_lighting")
+    @Config.Comment("Enabling this option makes skylight updates caused by block changes during the server tick run on a separate thread. "
+            + "The results are applied in a later tick, and discarded and recalculated on the server thread if the affected cubes have "
+            + "changed in the meantime.")
+    public static boolean asyncLighting = false;
+
     public static int defaultMaxCubesPerChunkloadingTicket = 25 * 16;
     public static Map<String, Integer> modMaxCubesPerChunkloadingTicket = new HashMap<>();
 
@@ -39,6 +39,7 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.ILightingManager;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
@@ -119,6 +120,8 @@ public interface ICubicWorldInternal extends ICubicWorld {
 
         FirstLightProcessor getFirstLightProcessor();
 
+        AsyncWorldIOExecutor getAsyncIOExecutor();
+
         void removeForcedCube(ICube cube);
 
         void addForcedCube(ICube cube);
@@ -394,6 +394,10 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         }
         opacityIndex.onOpacityChange(blockToLocal(pos.getX()), pos.getY(), blockToLocal(pos.getZ()), state.getLightOpacity(world, pos));
         getWorld().getLightingManager().sendHeightMapUpdate(pos);
+        Cube cube = getWorld().getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
+        if (cube != null) {
+            cube.onBlockChanged();
+        }
     }
 
     @Redirect(method = "setBlockState", at = @At(
@@ -473,7 +477,9 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
     @Redirect(method = "setLightFor", at = @At(value = "FIELD", target = "Lnet/minecraft/world/chunk/Chunk;dirty:Z"))
     private void setIsModifiedFromSetLightFor_Field(Chunk chunk, boolean isModifiedIn, EnumSkyBlock type, BlockPos pos, int value) {
         if (isColumn) {
-            getWorld().getCubeFromBlockCoords(pos).markDirty();
+            Cube cube = getWorld().getCubeFromBlockCoords(pos);
+            cube.markDirty();
+            cube.onLightChanged();
         } else {
             dirty = isModifiedIn;
         }
@@ -655,6 +661,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         }
         cbi.cancel();
         this.loaded = true;
+        getWorld().getLightingManager().onColumnLoad((Chunk) (Object) this);
         for (Cube cube : cubeMap) {
             cube.onLoad();
         }
@@ -672,6 +679,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         }
         cbi.cancel();
         this.loaded = false;
+        getWorld().getLightingManager().onColumnUnload((Chunk) (Object) this);
 
         for (Cube cube : cubeMap) {
             cube.onUnload();
@@ -46,6 +46,7 @@ import io.github.opencubicchunks.cubicchunks.core.server.ChunkGc;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.CubeWorldEntitySpawner;
@@ -126,6 +127,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     @Shadow public abstract PlayerChunkMap getPlayerChunkMap();
 
     @Nullable private FirstLightProcessor firstLightProcessor;
+    @Nullable private AsyncWorldIOExecutor asyncIOExecutor;
 
     @Override public void initCubicWorldServer(IntRange heightRange, IntRange generationRange) {
         super.initCubicWorld(heightRange, generationRange);
@@ -134,6 +136,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         IWorldEntitySpawner.Handler spawnHandler = cast(entitySpawner);
         spawnHandler.setEntitySpawner(spawner);
 
+        this.asyncIOExecutor = new AsyncWorldIOExecutor((WorldServer) (Object) this);
         this.chunkProvider = new CubeProviderServer((WorldServer) (Object) this,
                 ((ICubicWorldProvider) this.provider).createCubeGenerator());
 
@@ -193,6 +196,14 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         assert this.firstLightProcessor != null;
         return this.firstLightProcessor;
     }
+
+    @Override public AsyncWorldIOExecutor getAsyncIOExecutor() {
+        if (!this.isCubicWorld()) {
+            throw new NotCubicChunksWorldException();
+        }
+        assert this.asyncIOExecutor != null;
+        return this.asyncIOExecutor;
+    }
     
     @Override public void removeForcedCube(ICube cube) {
         if (!forcedChunksCubes.get(cube.getColumn()).remove(cube)) {
@@ -268,6 +279,20 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         return runningCompatibilityGenerator;
     }
 
+    /**
+     * Drops the queued cube and column loads and the cube terrain generated ahead when the world is unloaded. Forge and
+     * the server both flush a world after saving it for the last time.
+     *
+     * @param cbi callback info
+     */
+    @Inject(method = "flush", at = @At("HEAD"))
+    private void onFlushCloseAsyncIO(CallbackInfo cbi) {
+        if (isCubicWorld()) {
+            getAsyncIOExecutor().close();
+            getCubeCache().dropPreparedCubes();
+        }
+    }
+
     /**
      * Handles cubic chunks world block updates.
      *
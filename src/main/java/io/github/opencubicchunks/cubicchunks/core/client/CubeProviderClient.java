@@ -32,6 +32,7 @@ import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -97,8 +98,15 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
     @Override
     public boolean tick() {
         long i = System.currentTimeMillis();
-        for (Cube cube : cubeMap) {
-            cube.tickCubeCommon(() -> System.currentTimeMillis() - i > 5L);
+        // relight all cubes ticked below together
+        LightingManager lightingManager = world.getLightingManager();
+        lightingManager.beginBatch();
+        try {
+            for (Cube cube : cubeMap) {
+                cube.tickCubeCommon(() -> System.currentTimeMillis() - i > 5L);
+            }
+        } finally {
+            lightingManager.endBatch();
         }
 
         if (System.currentTimeMillis() - i > 100L) {
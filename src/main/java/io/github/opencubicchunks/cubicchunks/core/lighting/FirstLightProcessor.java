@@ -28,17 +28,17 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlock;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
-import static io.github.opencubicchunks.cubicchunks.api.util.Coords.getCubeCenter;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
 import io.github.opencubicchunks.cubicchunks.api.util.MathUtil;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
-import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenCustomHashMap;
@@ -48,14 +48,17 @@ import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -71,19 +74,10 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * <p>
  * THIS SHOULD ONLY EVER BE USED ONCE PER CUBE.
  */
-//TODO: make it also update blocklight
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class FirstLightProcessor {
 
-    private static final int LIGHT_UPDATE_RADIUS = 17;
-
-    private static final int CUBE_RADIUS = Cube.SIZE / 2;
-
-    private static final int UPDATE_BUFFER_RADIUS = 1;
-
-    private static final int UPDATE_RADIUS = LIGHT_UPDATE_RADIUS + CUBE_RADIUS + UPDATE_BUFFER_RADIUS;
-
     private static final IntHash.Strategy CUBE_Y_HASH = new IntHash.Strategy() {
 
         @Override
@@ -103,8 +97,13 @@ public class FirstLightProcessor {
     @Nonnull private final ICubeProviderInternal cache;
 
     @Nonnull private final LightPropagator propagator = new LightPropagator();
+    @Nonnull private final PlayerCubeMap playerCubeMap;
     @Nonnull private final LightUpdateTracker tracker;
 
+    // cubes that skylight couldn't be diffused into because they are not loaded
+    @Nonnull private final Set<CubePos> missingCubes = new HashSet<>();
+    @Nullable private CubePos lastMissingCube;
+
 
     /**
      * Creates a new FirstLightProcessor for the given world.
@@ -113,7 +112,8 @@ public class FirstLightProcessor {
      */
     public FirstLightProcessor(WorldServer world) {
         this.cache = (ICubeProviderInternal) world.getChunkProvider();
-        this.tracker = new LightUpdateTracker((PlayerCubeMap) world.getPlayerChunkMap());
+        this.playerCubeMap = (PlayerCubeMap) world.getPlayerChunkMap();
+        this.tracker = new LightUpdateTracker(this.playerCubeMap);
     }
 
 
@@ -152,10 +152,88 @@ public class FirstLightProcessor {
                 }
             }
         }
+        cube.onLightChanged();
     }
 
     /**
-     * Diffuses skylight in the given cube and all cubes affected by this update.
+     * Initializes block light in the given cube. Light from the light emitting blocks in the cube and light coming from
+     * already lit neighbor cubes is spread in a single light propagation, which also updates the loaded neighbor cubes.
+     *
+     * @param cube the cube whose block light is to be initialized
+     */
+    public void initializeBlockLight(Cube cube) {
+        World world = cube.getWorld();
+        // there is no block light update packet, so cubes that players already have are sent again
+        Set<CubePos> changedCubes = new HashSet<>();
+        Consumer<BlockPos> notify = pos -> {
+            world.notifyLightSet(pos);
+            changedCubes.add(CubePos.fromBlockCoords(pos));
+        };
+        FastCubeBlockAccess blockAccess = new FastCubeBlockAccess(this.cache, cube, 2);
+        List<BlockPos> toUpdate = new ArrayList<>();
+        BlockPos minPos = cube.getCoords().getMinBlockPos();
+
+        ExtendedBlockStorage ebs = cube.getStorage();
+        if (ebs != null && !ebs.isEmpty()) {
+            for (int localX = 0; localX < Cube.SIZE; ++localX) {
+                for (int localY = 0; localY < Cube.SIZE; ++localY) {
+                    for (int localZ = 0; localZ < Cube.SIZE; ++localZ) {
+                        this.mutablePos.setPos(minPos.getX() + localX, minPos.getY() + localY, minPos.getZ() + localZ);
+                        if (blockAccess.getEmittedLight(this.mutablePos, EnumSkyBlock.BLOCK)
+                                > blockAccess.getLightFor(EnumSkyBlock.BLOCK, this.mutablePos)) {
+                            toUpdate.add(this.mutablePos.toImmutable());
+                        }
+                    }
+                }
+            }
+        }
+
+        // Light from the neighbors is set in the outer layer of blocks of this cube. The light propagator then keeps
+        // these values and spreads them further into the cube.
+        for (EnumFacing facing : EnumFacing.values()) {
+            Cube neighbor = this.cache.getLoadedCube(
+                    cube.getX() + facing.getXOffset(), cube.getY() + facing.getYOffset(), cube.getZ() + facing.getZOffset());
+            if (neighbor == null || neighbor.getStorage() == null) {
+                continue;
+            }
+            int edge = facing.getAxisDirection() == EnumFacing.AxisDirection.POSITIVE ? Cube.SIZE - 1 : 0;
+            for (int a = 0; a < Cube.SIZE; ++a) {
+                for (int b = 0; b < Cube.SIZE; ++b) {
+                    switch (facing.getAxis()) {
+                        case X:
+                            this.mutablePos.setPos(minPos.getX() + edge, minPos.getY() + a, minPos.getZ() + b);
+                            break;
+                        case Y:
+                            this.mutablePos.setPos(minPos.getX() + a, minPos.getY() + edge, minPos.getZ() + b);
+                            break;
+                        case Z:
+                            this.mutablePos.setPos(minPos.getX() + a, minPos.getY() + b, minPos.getZ() + edge);
+                            break;
+                    }
+                    int fromNeighbors = blockAccess.getLightFromNeighbors(EnumSkyBlock.BLOCK, this.mutablePos);
+                    if (fromNeighbors > blockAccess.getLightFor(EnumSkyBlock.BLOCK, this.mutablePos)) {
+                        blockAccess.setLightFor(EnumSkyBlock.BLOCK, this.mutablePos, fromNeighbors);
+                        notify.accept(this.mutablePos);
+                        toUpdate.add(this.mutablePos.toImmutable());
+                    }
+                }
+            }
+        }
+
+        if (!toUpdate.isEmpty()) {
+            propagator.propagateLight(cube.getCoords().getCenterBlockPos(), toUpdate, blockAccess, EnumSkyBlock.BLOCK, notify);
+        }
+        for (CubePos pos : changedCubes) {
+            CubeWatcher watcher = this.playerCubeMap.getCubeWatcher(pos);
+            if (watcher != null) {
+                watcher.resendToPlayers();
+            }
+        }
+    }
+
+    /**
+     * Diffuses skylight in the given cube and all cubes affected by this update. Only cubes that are already loaded
+     * are updated, cubes that are not loaded yet are relit at their edges when they load.
      *
      * @param cube the cube whose skylight is to be initialized
      */
@@ -167,7 +245,6 @@ public class FirstLightProcessor {
             cube.setInitialLightingDone(true);
             return;
         }
-        ICubicWorldInternal world = cube.getWorld();
 
         // Cache min/max Y, generating them may be expensive
         int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
@@ -236,13 +313,6 @@ public class FirstLightProcessor {
                         continue;
                     }
 
-                    // Skip this cube if an update is not possible.
-                    if (!canUpdateCube(otherCube)) {
-                        // Queue the update to be processed once the cube is ready for it.
-                        world.getLightingManager().markCubeBlockColumnForUpdate(otherCube, this.mutablePos.getX(), this.mutablePos.getZ());
-                        continue;
-                    }
-
                     // Update the block column in this cube.
                     if (!diffuseSkylightInBlockColumn(otherCube, this.mutablePos, minBlockY, maxBlockY, blockAccessMap, toUpdate)) {
                         throw new IllegalStateException("Check light failed at " + this.mutablePos + "!");
@@ -255,10 +325,44 @@ public class FirstLightProcessor {
                 toUpdate.clear();
             }
         }
+        markMissingCubeEdges();
         tracker.sendAll();
         cube.setInitialLightingDone(true);
     }
 
+    private void onMissingCube(int cubeX, int cubeY, int cubeZ) {
+        // the same cube is usually reported many times in a row
+        if (lastMissingCube != null && lastMissingCube.getX() == cubeX && lastMissingCube.getY() == cubeY && lastMissingCube.getZ() == cubeZ) {
+            return;
+        }
+        lastMissingCube = new CubePos(cubeX, cubeY, cubeZ);
+        missingCubes.add(lastMissingCube);
+    }
+
+    /**
+     * Marks the edges of the loaded cubes next to all cubes that skylight couldn't be diffused into. The edge flags are
+     * saved with the cubes, and the edges are relit when the missing cube loads, see
+     * {@link LightingManager#onCubeLoad(Cube)}.
+     */
+    private void markMissingCubeEdges() {
+        for (CubePos pos : missingCubes) {
+            if (this.cache.getLoadedCube(pos) != null) {
+                continue;
+            }
+            for (EnumFacing facing : EnumFacing.values()) {
+                Cube neighbor = this.cache.getLoadedCube(
+                        pos.getX() + facing.getXOffset(), pos.getY() + facing.getYOffset(), pos.getZ() + facing.getZOffset());
+                if (neighbor != null && !neighbor.edgeNeedSkyLightUpdate[facing.getOpposite().ordinal()]) {
+                    neighbor.markEdgeNeedSkyLightUpdate(facing.getOpposite());
+                    // the flag is only kept if the neighbor is saved before it unloads
+                    neighbor.markDirty();
+                }
+            }
+        }
+        missingCubes.clear();
+        lastMissingCube = null;
+    }
+
     /**
      * Diffuses skylight inside of the given cube in the block column specified by the given MutableBlockPos. The
      * update is limited vertically by minBlockY and maxBlockY.
@@ -282,6 +386,8 @@ public class FirstLightProcessor {
         if (blockAccess == null) {
             // this value will be reused later for LightPropagator, so use radius 2
             blockAccess = new FastCubeBlockAccess(this.cache, cube, 2);
+            // only loaded cubes are diffused into, the others are updated when they load
+            blockAccess.setMissingCubeListener(this::onMissingCube);
             blockAccessMap.put(cube.getY(), blockAccess);
         }
 
@@ -329,18 +435,6 @@ public class FirstLightProcessor {
         return false;
     }
 
-    /**
-     * Determines if light in the given cube can be updated.
-     *
-     * @param cube the cube whose light is supposed to be updated
-     *
-     * @return true if light in the given cube can be updated, false otherwise
-     */
-    private static boolean canUpdateCube(@Nonnull ICube cube) {
-        BlockPos cubeCenter = getCubeCenter(cube);
-        return cube.getWorld().testForCubes(cubeCenter, UPDATE_RADIUS, Objects::nonNull);
-    }
-
     /**
      * Determines if the block column of the given cube as specified by the given BlockPos has valid lighting and thus
      * does not require further updating.
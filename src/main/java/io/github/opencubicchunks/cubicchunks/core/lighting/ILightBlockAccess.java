@@ -35,9 +35,17 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public interface ILightBlockAccess {
 
-    int getBlockLightOpacity(BlockPos pos);
+    default int getBlockLightOpacity(BlockPos pos) {
+        return getBlockLightOpacity(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    int getBlockLightOpacity(int blockX, int blockY, int blockZ);
 
-    int getLightFor(EnumSkyBlock lightType, BlockPos pos);
+    default int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+        return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ);
 
     /**
      * @param lightType type pf light
@@ -45,7 +53,14 @@ public interface ILightBlockAccess {
      * @param val light value to set (0-15 range_
      * @return success (if cube is loaded)
      */
-    boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val);
+    default boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+        return setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+    }
+
+    /**
+     * Same as {@link #setLightFor(EnumSkyBlock, BlockPos, int)}, without needing a BlockPos instance
+     */
+    boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val);
 
     /**
      * Faster version of world.getRawLight that works for skylight
@@ -54,10 +69,13 @@ public interface ILightBlockAccess {
      * @return computed light value
      */
     default int computeLightValue(BlockPos pos) {
-        if (canSeeSky(pos)) {
+        int blockX = pos.getX();
+        int blockY = pos.getY();
+        int blockZ = pos.getZ();
+        if (canSeeSky(blockX, blockY, blockZ)) {
             return 15;
         }
-        int lightSubtract = getBlockLightOpacity(pos);
+        int lightSubtract = getBlockLightOpacity(blockX, blockY, blockZ);
 
         if (lightSubtract < 1) {
             lightSubtract = 1;
@@ -66,11 +84,10 @@ public interface ILightBlockAccess {
         if (lightSubtract >= 15) {
             return 0;
         }
-        BlockPos.PooledMutableBlockPos currentPos = BlockPos.PooledMutableBlockPos.retain();
         int maxValue = 0;
         for (EnumFacing enumfacing : EnumFacing.VALUES) {
-            currentPos.setPos(pos).move(enumfacing);
-            int currentValue = this.getLightFor(EnumSkyBlock.SKY, currentPos) - lightSubtract;
+            int currentValue = this.getLightFor(EnumSkyBlock.SKY, blockX + enumfacing.getXOffset(),
+                    blockY + enumfacing.getYOffset(), blockZ + enumfacing.getZOffset()) - lightSubtract;
 
             if (currentValue > maxValue) {
                 maxValue = currentValue;
@@ -80,27 +97,41 @@ public interface ILightBlockAccess {
                 return maxValue;
             }
         }
-
-        currentPos.release();
         return maxValue;
     }
 
-    boolean canSeeSky(BlockPos pos);
+    default boolean canSeeSky(BlockPos pos) {
+        return canSeeSky(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    boolean canSeeSky(int blockX, int blockY, int blockZ);
+
+    default int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        return getEmittedLight(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
 
-    int getEmittedLight(BlockPos pos, EnumSkyBlock type);
+    int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type);
 
     default int getLightFromNeighbors(EnumSkyBlock type, BlockPos pos) {
-        //TODO: use MutableBlockPos?
+        return getLightFromNeighbors(type, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    default int getLightFromNeighbors(EnumSkyBlock type, int blockX, int blockY, int blockZ) {
         int max = 0;
         for (EnumFacing direction : EnumFacing.VALUES) {
-            int light = getLightFor(type, pos.offset(direction));
+            int light = getLightFor(type, blockX + direction.getXOffset(),
+                    blockY + direction.getYOffset(), blockZ + direction.getZOffset());
             if (light > max) {
                 max = light;
             }
         }
-        int decrease = Math.max(1, getBlockLightOpacity(pos));
+        int decrease = Math.max(1, getBlockLightOpacity(blockX, blockY, blockZ));
         return Math.max(0, max - decrease);
     }
 
-    void markEdgeNeedLightUpdate(BlockPos offset, EnumSkyBlock type);
+    default void markEdgeNeedLightUpdate(BlockPos offset, EnumSkyBlock type) {
+        markEdgeNeedLightUpdate(offset.getX(), offset.getY(), offset.getZ(), type);
+    }
+
+    void markEdgeNeedLightUpdate(int blockX, int blockY, int blockZ, EnumSkyBlock type);
 }
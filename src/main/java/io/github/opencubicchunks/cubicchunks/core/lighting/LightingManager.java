@@ -30,6 +30,7 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlo
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
@@ -40,6 +41,11 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.set.TIntSet;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
@@ -50,6 +56,7 @@ import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -65,14 +72,55 @@ public class LightingManager implements ILightingManager {
     public static final boolean NO_SUNLIGHT_PROPAGATION = "true".equalsIgnoreCase(System.getProperty("cubicchunks.nosunlight"));
 
     public static final int MAX_CLIENT_LIGHT_SCAN_DEPTH = 64;
+    // all cubes within this distance of a batch are needed to relight it
+    static final int BATCH_LOAD_RADIUS = 17;
     @Nonnull private World world;
     @Nonnull private LightPropagator lightPropagator = new LightPropagator();
     @Nonnull private final List<IHeightChangeListener> heightUpdateListeners = new ArrayList<>();
     @Nullable private LightUpdateTracker tracker;
+    /**
+     * Block access reused by all calls to {@link #relightMultiBlock(BlockPos, BlockPos, EnumSkyBlock, Consumer)},
+     * updated when cubes are loaded and unloaded
+     */
+    @Nonnull private final FastCubeBlockAccess relightBlockAccess;
+    private boolean batching;
+    // pending skylight updates by region, see SkyLightBatch
+    @Nonnull private final Long2ObjectMap<SkyLightBatch> pendingBatches = new Long2ObjectOpenHashMap<>();
+    @Nonnull private final LightingWorker lightingWorker = new LightingWorker();
 
     public LightingManager(World world) {
         this.world = world;
+        this.relightBlockAccess = new FastCubeBlockAccess(world);
+    }
+
+    public void onCubeLoad(Cube cube) {
+        this.relightBlockAccess.invalidateCube(cube.getX(), cube.getY(), cube.getZ());
+        CubeLightUpdateInfo info = cube.getCubeLightUpdateInfo();
+        if (info == null) {
+            return;
+        }
+        // neighbors mark their edge when skylight couldn't be updated in this cube while it wasn't loaded,
+        // relight both sides of these edges
+        ICubeProviderInternal prov = (ICubeProviderInternal) world.getChunkProvider();
+        for (EnumFacing dir : EnumFacing.VALUES) {
+            Cube neighbor = prov.getLoadedCube(cube.getX() + dir.getXOffset(), cube.getY() + dir.getYOffset(), cube.getZ() + dir.getZOffset());
+            if (neighbor != null && neighbor.edgeNeedSkyLightUpdate[dir.getOpposite().ordinal()]) {
+                cube.markEdgeNeedSkyLightUpdate(dir);
+                info.markEdgesForUpdate();
+            }
+        }
+    }
+
+    public void onCubeUnload(Cube cube) {
+        this.relightBlockAccess.invalidateCube(cube.getX(), cube.getY(), cube.getZ());
+    }
+
+    public void onColumnLoad(Chunk column) {
+        this.relightBlockAccess.invalidateColumn(column.x, column.z);
+    }
 
+    public void onColumnUnload(Chunk column) {
+        this.relightBlockAccess.invalidateColumn(column.x, column.z);
     }
 
     @Nullable
@@ -194,14 +242,14 @@ public class LightingManager implements ILightingManager {
         if (NO_SUNLIGHT_PROPAGATION) {
             return true;
         }
-        // TODO: optimize if needed
         // TODO: Figure out why it crashes with value 17
         final int LOAD_RADIUS = 17;
         BlockPos midPos = Coords.midPos(startPos, endPos);
-        BlockPos minLoad = startPos.add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS);
-        BlockPos maxLoad = endPos.add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS);
-        ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion((ICubeProviderInternal) world.getChunkProvider(), minLoad, maxLoad);
-        this.lightPropagator.propagateLight(midPos, BlockPos.getAllInBox(startPos, endPos), blocks, type, notify);
+        CubePos minLoad = CubePos.fromBlockCoords(startPos.add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS));
+        CubePos maxLoad = CubePos.fromBlockCoords(endPos.add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS));
+        // consecutive relights are usually close to each other, so most cubes stay in the window
+        relightBlockAccess.setWindow((ICubeProviderInternal) world.getChunkProvider(), minLoad, maxLoad);
+        this.lightPropagator.propagateLight(midPos, BlockPos.getAllInBox(startPos, endPos), relightBlockAccess, type, notify);
         return true;
     }
 
@@ -216,11 +264,205 @@ public class LightingManager implements ILightingManager {
         IMMEDIATE, QUEUED
     }
 
+    /**
+     * Starts collecting skylight updates of all cubes ticked until {@link #endBatch()}, so that they can be done in
+     * a few light propagations instead of one for every updated block column.
+     */
+    public void beginBatch() {
+        if (batching) {
+            throw new IllegalStateException("Light update batch already started");
+        }
+        batching = true;
+    }
+
+    /**
+     * Does all skylight updates collected since {@link #beginBatch()}.
+     * <p>
+     * With {@link CubicChunksConfig#asyncLighting}, the updates are started on the lighting worker instead, and applied
+     * in the first call after they are done. Updates collected while the worker is busy are kept until then.
+     */
+    public void endBatch() {
+        if (!batching) {
+            throw new IllegalStateException("Light update batch not started");
+        }
+        batching = false;
+        if (lightingWorker.isBusy()) {
+            finishAsyncRelight();
+        }
+        if (pendingBatches.isEmpty()) {
+            return;
+        }
+        if (CubicChunksConfig.asyncLighting && !world.isRemote) {
+            if (lightingWorker.isBusy()) {
+                // the worker's result would be outdated if these were relit now, more updates will be added to them
+                return;
+            }
+            List<SkyLightBatch> toRelight = new ArrayList<>();
+            for (SkyLightBatch batch : pendingBatches.values()) {
+                if (!batch.positions.isEmpty()) {
+                    toRelight.add(batch);
+                }
+            }
+            if (toRelight.isEmpty() || lightingWorker.submit((ICubeProviderInternal) world.getChunkProvider(), toRelight)) {
+                pendingBatches.clear();
+                return;
+            }
+        }
+        // batches can't be modified while relighting, as cubes can't be ticked from there
+        for (SkyLightBatch batch : pendingBatches.values()) {
+            relightBatch(batch);
+        }
+        pendingBatches.clear();
+    }
+
+    /**
+     * Waits for the lighting worker and applies its result, and does the skylight updates it hasn't started yet. Called
+     * before cubes are saved, so that they are saved with up to date light, including when the world is saved for the
+     * last time before it's unloaded.
+     */
+    public void finishAsyncLighting() {
+        if (batching) {
+            throw new IllegalStateException("Can't finish asynchronous lighting during a light update batch");
+        }
+        if (lightingWorker.isBusy()) {
+            finishAsyncRelight(true);
+        }
+        for (SkyLightBatch batch : pendingBatches.values()) {
+            relightBatch(batch);
+        }
+        pendingBatches.clear();
+    }
+
+    /**
+     * Stops the lighting worker thread shared by all worlds, called when the server stops.
+     */
+    public static void shutdownAsyncLighting() {
+        LightingWorker.shutdown();
+    }
+
+    private void finishAsyncRelight() {
+        finishAsyncRelight(false);
+    }
+
+    private void finishAsyncRelight(boolean wait) {
+        LightUpdateTracker tracker = getTracker();
+        Consumer<BlockPos> notify = pos -> {
+            world.notifyLightSet(pos);
+            if (tracker != null) {
+                tracker.onUpdate(pos);
+            }
+        };
+        ICubeProviderInternal prov = (ICubeProviderInternal) world.getChunkProvider();
+        List<SkyLightBatch> outdated = wait ? lightingWorker.await(prov, notify) : lightingWorker.finish(prov, notify);
+        if (outdated != null) {
+            for (SkyLightBatch batch : outdated) {
+                relightBatch(batch);
+            }
+        }
+    }
+
+    private SkyLightBatch getBatchFor(Cube cube) {
+        int regionX = cube.getX() >> SkyLightBatch.REGION_BITS;
+        int regionY = cube.getY() >> SkyLightBatch.REGION_BITS;
+        int regionZ = cube.getZ() >> SkyLightBatch.REGION_BITS;
+        if (!batching) {
+            return new SkyLightBatch(regionX, regionY, regionZ);
+        }
+        long key = ((long) regionX & 0x1FFFFF) << 42 | ((long) regionY & 0x1FFFFF) << 21 | (long) regionZ & 0x1FFFFF;
+        SkyLightBatch batch = pendingBatches.get(key);
+        if (batch == null) {
+            batch = new SkyLightBatch(regionX, regionY, regionZ);
+            pendingBatches.put(key, batch);
+        }
+        return batch;
+    }
+
+    private void relightBatch(SkyLightBatch batch) {
+        if (batch.positions.isEmpty()) {
+            return;
+        }
+        BlockPos minPos = batch.getMinPos();
+        BlockPos maxPos = batch.getMaxPos();
+        CubePos minLoad = CubePos.fromBlockCoords(minPos.add(-BATCH_LOAD_RADIUS, -BATCH_LOAD_RADIUS, -BATCH_LOAD_RADIUS));
+        CubePos maxLoad = CubePos.fromBlockCoords(maxPos.add(BATCH_LOAD_RADIUS, BATCH_LOAD_RADIUS, BATCH_LOAD_RADIUS));
+        relightBlockAccess.setWindow((ICubeProviderInternal) world.getChunkProvider(), minLoad, maxLoad);
+        LightUpdateTracker tracker = getTracker();
+        this.lightPropagator.propagateLight(Coords.midPos(minPos, maxPos), batch, relightBlockAccess, EnumSkyBlock.SKY, pos -> {
+            world.notifyLightSet(pos);
+            if (tracker != null) {
+                tracker.onUpdate(pos);
+            }
+        });
+        batch.positions.clear();
+    }
+
+    /**
+     * Skylight update positions of all cubes in a region of 4x4x4 cubes, relit together in a single light
+     * propagation. Positions are stored relative to the region, which also allows the edges just outside of it.
+     */
+    static final class SkyLightBatch implements Iterable<BlockPos> {
+
+        static final int REGION_BITS = 2;
+        private static final int POS_BITS = 8;
+        private static final int POS_MASK = (1 << POS_BITS) - 1;
+
+        private final int minBlockX, minBlockY, minBlockZ;
+        private final IntSet positions = new IntOpenHashSet();
+
+        SkyLightBatch(int regionX, int regionY, int regionZ) {
+            this.minBlockX = cubeToMinBlock(regionX << REGION_BITS);
+            this.minBlockY = cubeToMinBlock(regionY << REGION_BITS);
+            this.minBlockZ = cubeToMinBlock(regionZ << REGION_BITS);
+        }
+
+        void addBox(int fromX, int fromY, int fromZ, int toX, int toY, int toZ) {
+            for (int x = fromX; x <= toX; x++) {
+                for (int y = fromY; y <= toY; y++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        // +1 so that the edges just below the region are still positive
+                        positions.add((x - minBlockX + 1) << POS_BITS * 2 | (y - minBlockY + 1) << POS_BITS | (z - minBlockZ + 1));
+                    }
+                }
+            }
+        }
+
+        BlockPos getMinPos() {
+            return new BlockPos(minBlockX - 1, minBlockY - 1, minBlockZ - 1);
+        }
+
+        BlockPos getMaxPos() {
+            int size = Cube.SIZE << REGION_BITS;
+            return new BlockPos(minBlockX + size, minBlockY + size, minBlockZ + size);
+        }
+
+        /**
+         * Iterates over all positions. The returned position is mutable and only valid until the next call to next().
+         */
+        @Override public Iterator<BlockPos> iterator() {
+            IntIterator it = positions.iterator();
+            BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+            return new Iterator<BlockPos>() {
+                @Override public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override public BlockPos next() {
+                    int packed = it.nextInt();
+                    return pos.setPos(
+                            minBlockX - 1 + (packed >>> POS_BITS * 2 & POS_MASK),
+                            minBlockY - 1 + (packed >>> POS_BITS & POS_MASK),
+                            minBlockZ - 1 + (packed & POS_MASK));
+                }
+            };
+        }
+    }
+
     //this will be interface
     public static class CubeLightUpdateInfo {
 
         private final Cube cube;
-        private final boolean[] toUpdateColumns = new boolean[Cube.SIZE * Cube.SIZE];
+        // bit localX << 4 | localZ is set for block columns to update, allocated on first update
+        @Nullable private long[] toUpdateColumns;
         private boolean hasUpdates;
 
         public CubeLightUpdateInfo(Cube cube) {
@@ -228,18 +470,33 @@ public class LightingManager implements ILightingManager {
         }
 
         void markBlockColumnForUpdate(int localX, int localZ) {
-            toUpdateColumns[index(localX, localZ)] = true;
+            if (toUpdateColumns == null) {
+                toUpdateColumns = new long[Cube.SIZE * Cube.SIZE / Long.SIZE];
+            }
+            int index = index(localX, localZ);
+            toUpdateColumns[index >>> 6] |= 1L << index;
+            hasUpdates = true;
+        }
+
+        /**
+         * Makes the next {@link #tick()} relight the edges of this cube, even if no block column needs an update
+         */
+        void markEdgesForUpdate() {
             hasUpdates = true;
         }
 
+        /**
+         * Relights all updated block columns and edges of this cube. When a batch is in progress, the update is only
+         * added to the batch.
+         */
         public void tick() {
             if (NO_SUNLIGHT_PROPAGATION) {
                 return;
             }
             ICubicWorldInternal cubicWorld = cube.getWorld();
             LightingManager manager = cubicWorld.getLightingManager();
-            LightUpdateTracker tracker = manager.getTracker();
             ICubeProviderInternal cache = cubicWorld.getCubeCache();
+            SkyLightBatch batch = manager.getBatchFor(cube);
 
             for (EnumFacing dir : EnumFacing.values()) {
                 if (cube.edgeNeedSkyLightUpdate[dir.ordinal()]) {
@@ -257,6 +514,7 @@ public class LightingManager implements ILightingManager {
                     int toBlockX = cpos.getMaxBlockX();
                     int toBlockY = cpos.getMaxBlockY();
                     int toBlockZ = cpos.getMaxBlockZ();
+                    // the neighbor's edge is relit together with this one
                     boolean extendBack = loadedCube.edgeNeedSkyLightUpdate[dir.getOpposite().ordinal()];
                     switch (dir) {
                         case DOWN:
@@ -284,41 +542,30 @@ public class LightingManager implements ILightingManager {
                             fromBlockX = extendBack ? toBlockX - 1 : toBlockX;
                             break;
                     }
-                    manager.relightMultiBlock(
-                            new BlockPos(fromBlockX, fromBlockY, fromBlockZ),
-                            new BlockPos(toBlockX, toBlockY, toBlockZ),
-                            EnumSkyBlock.SKY, pos -> {
-                                cube.getWorld().notifyLightSet(pos);
-                                if (tracker != null) {
-                                    tracker.onUpdate(pos);
-                                }
-                            });
+                    batch.addBox(fromBlockX, fromBlockY, fromBlockZ, toBlockX, toBlockY, toBlockZ);
                     cube.edgeNeedSkyLightUpdate[dir.ordinal()] = false;
                     loadedCube.edgeNeedSkyLightUpdate[dir.getOpposite().ordinal()] = false;
                 }
             }
-            if (!this.hasUpdates) {
-                return;
-            }
-            for (int localX = 0; localX < Cube.SIZE; localX++) {
-                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
-                    if (!toUpdateColumns[index(localX, localZ)]) {
-                        continue;
+            if (this.toUpdateColumns != null) {
+                int minBlockY = cubeToMinBlock(cube.getY());
+                int maxBlockY = cubeToMaxBlock(cube.getY());
+                for (int i = 0; i < toUpdateColumns.length; i++) {
+                    long bits = toUpdateColumns[i];
+                    while (bits != 0) {
+                        int index = i << 6 | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        int blockX = localToBlock(cube.getX(), index >>> 4);
+                        int blockZ = localToBlock(cube.getZ(), index & 0xF);
+                        batch.addBox(blockX, minBlockY, blockZ, blockX, maxBlockY, blockZ);
                     }
-                    manager.relightMultiBlock(
-                            new BlockPos(localToBlock(cube.getX(), localX), cubeToMinBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
-                            new BlockPos(localToBlock(cube.getX(), localX), cubeToMaxBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
-                            EnumSkyBlock.SKY, pos -> {
-                                cube.getWorld().notifyLightSet(pos);
-                                if (tracker != null) {
-                                    tracker.onUpdate(pos);
-                                }
-                            }
-                    );
-                    toUpdateColumns[index(localX, localZ)] = false;
                 }
+                this.toUpdateColumns = null;
             }
             this.hasUpdates = false;
+            if (!manager.batching) {
+                manager.relightBatch(batch);
+            }
         }
 
         private int index(int x, int z) {
@@ -330,11 +577,7 @@ public class LightingManager implements ILightingManager {
         }
 
         public void clear() {
-            for (int localX = 0; localX < Cube.SIZE; localX++) {
-                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
-                    toUpdateColumns[index(localX, localZ)] = false;
-                }
-            }
+            toUpdateColumns = null;
             hasUpdates = false;
         }
     }
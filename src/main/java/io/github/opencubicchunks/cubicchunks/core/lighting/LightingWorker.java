@@ -0,0 +1,497 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Relights skylight batches on a separate thread, shared by all worlds.
+ * <p>
+ * The worker reads the light of the cubes a batch can reach directly from the cubes, and copies the light of a cube
+ * the first time it changes it, so it never writes to the world. When the job is submitted, the server thread records
+ * the light generation of these cubes (see {@link Cube#getLightGeneration()}), which changes with every block and light
+ * change, and the modification count of the height maps of their columns. When the job is done, the server thread
+ * checks that none of these cubes and columns has been loaded, unloaded or changed since, and then applies the changed
+ * light values. Otherwise the result is discarded and the batches must be relit on the server thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class LightingWorker {
+
+    @Nullable private static ExecutorService executor;
+    // only used on the worker thread
+    private static final LightPropagator propagator = new LightPropagator();
+
+    @Nullable private Job currentJob;
+    @Nullable private Future<?> currentFuture;
+
+    /**
+     * Stops the worker thread, called when the server stops. Jobs of the worlds have been finished when they were
+     * saved, a new thread is started if one is submitted later.
+     */
+    static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Cubic Chunks Lighting Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * @return true if a job was submitted and its result wasn't taken yet
+     */
+    boolean isBusy() {
+        return currentJob != null;
+    }
+
+    /**
+     * Copies the cubes needed to relight the given batches and starts relighting them on the worker thread. Must not be
+     * called when {@link #isBusy()}.
+     *
+     * @return false if the batches can't be relit asynchronously, in which case nothing was submitted
+     */
+    boolean submit(ICubeProviderInternal prov, List<LightingManager.SkyLightBatch> batches) {
+        if (currentJob != null) {
+            throw new IllegalStateException("Lighting job already running");
+        }
+        Job job = new Job(batches);
+        for (LightingManager.SkyLightBatch batch : batches) {
+            BlockPos minPos = batch.getMinPos();
+            BlockPos maxPos = batch.getMaxPos();
+            int radius = LightingManager.BATCH_LOAD_RADIUS;
+            if (!job.addWindow(prov, CubePos.fromBlockCoords(minPos.add(-radius, -radius, -radius)),
+                    CubePos.fromBlockCoords(maxPos.add(radius, radius, radius)))) {
+                return false;
+            }
+        }
+        currentJob = job;
+        currentFuture = getExecutor().submit(job::run);
+        return true;
+    }
+
+    /**
+     * Applies the result of the submitted job if it's done.
+     *
+     * @param prov the cube provider of the world the job was submitted for
+     * @param notify called for every position where light was changed. The position is mutable.
+     * @return the batches of the job if it's done but couldn't be applied, so they have to be relit again. Null
+     * otherwise.
+     */
+    @Nullable
+    List<LightingManager.SkyLightBatch> finish(ICubeProviderInternal prov, Consumer<BlockPos> notify) {
+        if (currentJob == null || currentFuture == null || !currentFuture.isDone()) {
+            return null;
+        }
+        return take(prov, notify);
+    }
+
+    /**
+     * Waits for the submitted job and applies its result, like {@link #finish} once the job is done.
+     */
+    @Nullable
+    List<LightingManager.SkyLightBatch> await(ICubeProviderInternal prov, Consumer<BlockPos> notify) {
+        if (currentJob == null || currentFuture == null) {
+            return null;
+        }
+        try {
+            currentFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // can't know how far the worker got, the batches are relit on this thread
+            currentJob.failed = true;
+        } catch (ExecutionException e) {
+            // the job catches everything itself
+            throw new Error(e);
+        }
+        return take(prov, notify);
+    }
+
+    @Nullable
+    private List<LightingManager.SkyLightBatch> take(ICubeProviderInternal prov, Consumer<BlockPos> notify) {
+        assert currentJob != null;
+        Job job = currentJob;
+        currentJob = null;
+        currentFuture = null;
+        if (job.failed || !job.isUpToDate(prov)) {
+            return job.batches;
+        }
+        job.apply(notify);
+        return null;
+    }
+
+    private static long cubeKey(int cubeX, int cubeY, int cubeZ) {
+        return ((long) cubeX & 0x1FFFFF) << 42 | ((long) cubeY & 0x1FFFFF) << 21 | (long) cubeZ & 0x1FFFFF;
+    }
+
+    private static long columnKey(int cubeX, int cubeZ) {
+        return (long) cubeX << 32 | (long) cubeZ & 0xFFFFFFFFL;
+    }
+
+    /**
+     * The copied cubes of a set of batches, and the light block access the worker relights them with.
+     */
+    private static final class Job implements ILightBlockAccess {
+
+        // the packed cube keys never use the highest bit
+        private static final long NO_KEY = Long.MIN_VALUE;
+
+        private final List<LightingManager.SkyLightBatch> batches;
+        // all cubes in the windows of the batches, including unloaded ones
+        private final Long2ObjectMap<CubeSnapshot> cubes = new Long2ObjectOpenHashMap<>();
+        private final Long2ObjectMap<ColumnSnapshot> columns = new Long2ObjectOpenHashMap<>();
+        private long lastKey = NO_KEY;
+        @Nullable private CubeSnapshot lastSnapshot;
+        // set by the worker, or by the server thread when it stops waiting for the worker
+        private volatile boolean failed;
+
+        Job(List<LightingManager.SkyLightBatch> batches) {
+            this.batches = batches;
+        }
+
+        boolean addWindow(ICubeProviderInternal prov, CubePos start, CubePos end) {
+            for (int x = start.getX(); x <= end.getX(); x++) {
+                for (int z = start.getZ(); z <= end.getZ(); z++) {
+                    long columnKey = columnKey(x, z);
+                    if (!columns.containsKey(columnKey)) {
+                        columns.put(columnKey, new ColumnSnapshot(prov.getLoadedColumn(x, z)));
+                    }
+                    for (int y = start.getY(); y <= end.getY(); y++) {
+                        long key = cubeKey(x, y, z);
+                        if (cubes.containsKey(key)) {
+                            continue;
+                        }
+                        Cube cube = prov.getLoadedCube(x, y, z);
+                        ExtendedBlockStorage storage = cube == null ? null : cube.getStorage();
+                        if (storage != null && storage.getSkyLight() == null) {
+                            return false;
+                        }
+                        cubes.put(key, new CubeSnapshot(x, y, z, cube, storage));
+                    }
+                }
+            }
+            return true;
+        }
+
+        void run() {
+            try {
+                for (LightingManager.SkyLightBatch batch : batches) {
+                    propagator.propagateLight(Coords.midPos(batch.getMinPos(), batch.getMaxPos()), batch, this, EnumSkyBlock.SKY, pos -> {
+                    });
+                }
+            } catch (Throwable t) {
+                // blocks are read while the server thread may change them, the batches will be relit on the server thread
+                CubicChunks.LOGGER.debug("Asynchronous skylight update failed", t);
+                failed = true;
+            }
+        }
+
+        boolean isUpToDate(ICubeProviderInternal prov) {
+            for (CubeSnapshot snapshot : cubes.values()) {
+                if (!snapshot.isUpToDate(prov)) {
+                    return false;
+                }
+            }
+            for (Long2ObjectMap.Entry<ColumnSnapshot> entry : columns.long2ObjectEntrySet()) {
+                long key = entry.getLongKey();
+                if (!entry.getValue().isUpToDate(prov.getLoadedColumn((int) (key >> 32), (int) key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void apply(Consumer<BlockPos> notify) {
+            BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+            for (CubeSnapshot snapshot : cubes.values()) {
+                snapshot.apply(pos, notify);
+            }
+        }
+
+        @Nullable
+        private CubeSnapshot getSnapshot(int blockX, int blockY, int blockZ) {
+            long key = cubeKey(blockToCube(blockX), blockToCube(blockY), blockToCube(blockZ));
+            if (key != lastKey) {
+                lastSnapshot = cubes.get(key);
+                lastKey = key;
+            }
+            return lastSnapshot;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+            CubeSnapshot snapshot = getSnapshot(blockX, blockY, blockZ);
+            if (snapshot == null || snapshot.storage == null) {
+                return 0;
+            }
+            // the position aware variant may access the world, which isn't possible from this thread
+            return snapshot.storage.get(blockToLocal(blockX), blockToLocal(blockY), blockToLocal(blockZ)).getLightOpacity();
+        }
+
+        @Override public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+            checkSkyLight(lightType);
+            CubeSnapshot snapshot = getSnapshot(blockX, blockY, blockZ);
+            if (snapshot == null) {
+                return lightType.defaultLightValue;
+            }
+            return snapshot.getSkyLight(blockToLocal(blockX), blockToLocal(blockY), blockToLocal(blockZ));
+        }
+
+        @Override public boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+            checkSkyLight(lightType);
+            CubeSnapshot snapshot = getSnapshot(blockX, blockY, blockZ);
+            if (snapshot == null || snapshot.cube == null) {
+                return false;
+            }
+            snapshot.setSkyLight(blockToLocal(blockX), blockToLocal(blockY), blockToLocal(blockZ), val);
+            return true;
+        }
+
+        @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
+            ColumnSnapshot column = columns.get(columnKey(blockToCube(blockX), blockToCube(blockZ)));
+            if (column == null || column.heights == null) {
+                return false;
+            }
+            return column.heights[blockToLocal(blockX) << 4 | blockToLocal(blockZ)] <= blockY;
+        }
+
+        @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+            checkSkyLight(type);
+            return canSeeSky(blockX, blockY, blockZ) ? 15 : 0;
+        }
+
+        @Override public void markEdgeNeedLightUpdate(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+            checkSkyLight(type);
+            CubeSnapshot snapshot = getSnapshot(blockX, blockY, blockZ);
+            if (snapshot == null || snapshot.cube == null) {
+                return;
+            }
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
+            if (localX == 0) {
+                snapshot.markEdge(EnumFacing.WEST);
+            } else if (localX == 15) {
+                snapshot.markEdge(EnumFacing.EAST);
+            }
+            if (localY == 0) {
+                snapshot.markEdge(EnumFacing.DOWN);
+            } else if (localY == 15) {
+                snapshot.markEdge(EnumFacing.UP);
+            }
+            if (localZ == 0) {
+                snapshot.markEdge(EnumFacing.NORTH);
+            } else if (localZ == 15) {
+                snapshot.markEdge(EnumFacing.SOUTH);
+            }
+        }
+
+        private static void checkSkyLight(EnumSkyBlock type) {
+            if (type != EnumSkyBlock.SKY) {
+                throw new IllegalArgumentException("Only skylight can be updated asynchronously, got " + type);
+            }
+        }
+    }
+
+    /**
+     * The height map of a column when the job was submitted. The heights are copied, as the height map can't be read
+     * while the server thread changes it.
+     */
+    private static final class ColumnSnapshot {
+
+        @Nullable private final Chunk column;
+        private final int heightModifications;
+        // null if the column isn't loaded
+        @Nullable private final int[] heights;
+
+        ColumnSnapshot(@Nullable Chunk column) {
+            this.column = column;
+            this.heightModifications = heightModifications(column);
+            if (column == null) {
+                this.heights = null;
+                return;
+            }
+            this.heights = new int[Cube.SIZE * Cube.SIZE];
+            for (int localX = 0; localX < Cube.SIZE; localX++) {
+                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                    this.heights[localX << 4 | localZ] = column.getHeightValue(localX, localZ);
+                }
+            }
+        }
+
+        boolean isUpToDate(@Nullable Chunk loaded) {
+            return loaded == column && heightModifications(loaded) == heightModifications;
+        }
+
+        private static int heightModifications(@Nullable Chunk column) {
+            if (column == null) {
+                return 0;
+            }
+            IHeightMap heightMap = ((IColumn) column).getOpacityIndex();
+            return heightMap instanceof ServerHeightMap ? ((ServerHeightMap) heightMap).getModificationCount() : 0;
+        }
+    }
+
+    /**
+     * A cube as it was when the job was submitted. The skylight is read from the cube until the worker first changes
+     * it, and copied then.
+     */
+    private static final class CubeSnapshot {
+
+        private final int cubeX, cubeY, cubeZ;
+        @Nullable private final Cube cube;
+        private final int lightGeneration;
+        @Nullable private final ExtendedBlockStorage storage;
+        // skylight changed by the worker, null if nothing was changed yet
+        @Nullable private NibbleArray newSkyLight;
+        // bit y << 8 | z << 4 | x is set for every changed position
+        @Nullable private long[] changed;
+        // bit dir.ordinal() is set for every edge that needs a light update
+        private int edges;
+
+        CubeSnapshot(int cubeX, int cubeY, int cubeZ, @Nullable Cube cube, @Nullable ExtendedBlockStorage storage) {
+            this.cubeX = cubeX;
+            this.cubeY = cubeY;
+            this.cubeZ = cubeZ;
+            this.cube = cube;
+            this.lightGeneration = cube == null ? 0 : cube.getLightGeneration();
+            this.storage = storage;
+        }
+
+        int getSkyLight(int localX, int localY, int localZ) {
+            if (newSkyLight != null) {
+                return newSkyLight.get(localX, localY, localZ);
+            }
+            // if the server thread changes the light meanwhile, the light generation tells and the result is discarded
+            return storage == null ? EnumSkyBlock.SKY.defaultLightValue : storage.getSkyLight().get(localX, localY, localZ);
+        }
+
+        void setSkyLight(int localX, int localY, int localZ, int value) {
+            if (newSkyLight == null) {
+                if (storage != null) {
+                    newSkyLight = new NibbleArray(storage.getSkyLight().getData().clone());
+                } else {
+                    // without storage, all skylight is at the default value of 15
+                    byte[] data = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE / 2];
+                    Arrays.fill(data, (byte) 0xFF);
+                    newSkyLight = new NibbleArray(data);
+                }
+                changed = new long[Cube.SIZE * Cube.SIZE * Cube.SIZE / Long.SIZE];
+            }
+            assert changed != null;
+            newSkyLight.set(localX, localY, localZ, value);
+            int index = localY << 8 | localZ << 4 | localX;
+            changed[index >>> 6] |= 1L << index;
+        }
+
+        void markEdge(EnumFacing side) {
+            edges |= 1 << side.ordinal();
+        }
+
+        boolean isUpToDate(ICubeProviderInternal prov) {
+            Cube loaded = prov.getLoadedCube(cubeX, cubeY, cubeZ);
+            if (loaded != cube) {
+                return false;
+            }
+            if (cube == null) {
+                return true;
+            }
+            return cube.getLightGeneration() == lightGeneration && cube.getStorage() == storage;
+        }
+
+        void apply(BlockPos.MutableBlockPos pos, Consumer<BlockPos> notify) {
+            if (cube == null) {
+                return;
+            }
+            if (changed != null) {
+                assert newSkyLight != null;
+                for (int i = 0; i < changed.length; i++) {
+                    long bits = changed[i];
+                    while (bits != 0) {
+                        int index = i << 6 | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        int localX = index & 0xF;
+                        int localZ = index >>> 4 & 0xF;
+                        int localY = index >>> 8;
+                        int value = newSkyLight.get(localX, localY, localZ);
+                        pos.setPos(localToBlock(cubeX, localX), localToBlock(cubeY, localY), localToBlock(cubeZ, localZ));
+                        if (storage != null) {
+                            storage.setSkyLight(localX, localY, localZ, value);
+                        } else {
+                            cube.setLightFor(EnumSkyBlock.SKY, pos, value);
+                        }
+                        notify.accept(pos);
+                    }
+                }
+                cube.onLightChanged();
+            }
+            for (EnumFacing side : EnumFacing.VALUES) {
+                if ((edges & 1 << side.ordinal()) != 0) {
+                    cube.markEdgeNeedSkyLightUpdate(side);
+                }
+            }
+        }
+    }
+}
@@ -30,12 +30,12 @@ import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XZAddressable;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IPlayerChunkMapEntry;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketColumn;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketHeightMapUpdate;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketUnloadColumn;
-import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
@@ -98,8 +98,8 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
             self().getPlayerList().remove(player);
             if (self().getPlayerList().isEmpty()) {
                 if (self().isLoading()) {
-                    AsyncWorldIOExecutor.dropQueuedColumnLoad(
-                            playerCubeMap.getWorldServer(), getPos().x, getPos().z, (c) -> self().getLoadedRunnable().run());
+                    ((ICubicWorldInternal.Server) playerCubeMap.getWorldServer()).getAsyncIOExecutor().dropQueuedColumnLoad(
+                            getPos().x, getPos().z, self().getLoadedRunnable());
                 }
                 this.playerCubeMap.removeEntry(this);
             }
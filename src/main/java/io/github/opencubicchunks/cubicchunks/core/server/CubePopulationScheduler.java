@@ -0,0 +1,304 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer.Requirement;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Fully populates a batch of cubes at once.
+ * <p>
+ * Full population of a cube requires the population of every cube in its
+ * {@link ICubeGenerator#getFullPopulationRequirements full population requirements}, and populating a cube requires
+ * every cube in its {@link ICubeGenerator#getPopulationPregenerationRequirements pregeneration requirements} to be
+ * generated. Instead of getting these cubes one by one, the scheduler collects all of them for the whole batch, starts
+ * the loads of the missing ones together so that the IO threads read them in parallel, generates the ones that don't
+ * exist together, and only then runs the populators. Population never requires other cubes to be populated, so once
+ * every required cube is generated, any order of populators satisfies all requirements. The populators run in the
+ * order of the targets and their requirement boxes, the same order as one by one population.
+ * <p>
+ * Batches populated ahead of time for players don't wait for anything: they only start the loads of the missing cubes
+ * and try again later, and stop when their time or cube budget runs out. Population of single cubes, which the caller
+ * needs right away, waits for the loads.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class CubePopulationScheduler {
+
+    private static final Consumer<Cube> NO_CALLBACK = cube -> {};
+
+    private final CubeProviderServer provider;
+    private final ICubeGenerator generator;
+    // cubes loaded asynchronously for batches, so that the load isn't queued again every time the batch is retried
+    private final Set<CubePos> loading = new HashSet<>();
+
+    CubePopulationScheduler(CubeProviderServer provider, ICubeGenerator generator) {
+        this.provider = provider;
+        this.generator = generator;
+    }
+
+    /**
+     * Fully populate the given cubes, loading or generating them and all cubes needed to populate them.
+     *
+     * @param targets positions of the cubes to populate
+     */
+    void populate(Collection<CubePos> targets) {
+        populate(targets, null);
+    }
+
+    /**
+     * Fully populate the given cubes as far as the budget allows, without waiting for cube loads. Cubes that have to be
+     * loaded first are loaded asynchronously, and the population is continued by calling this again once they are
+     * loaded. Cubes generated or populated before the budget runs out stay that way.
+     *
+     * @param targets positions of the cubes to populate
+     * @param stopTime {@link System#nanoTime()} after which no more cubes are generated or populated
+     * @param maxCubes the maximum number of cubes to generate or populate
+     * @return the number of cubes generated or populated
+     */
+    int populate(Collection<CubePos> targets, long stopTime, int maxCubes) {
+        Budget budget = new Budget(stopTime, maxCubes);
+        populate(targets, budget);
+        return maxCubes - budget.cubes;
+    }
+
+    /**
+     * @param budget limits the work done and prevents waiting for cube loads, or null to populate everything now
+     */
+    private void populate(Collection<CubePos> targets, @Nullable Budget budget) {
+        Map<CubePos, Cube> targetCubes = getCubes(targets, budget);
+        if (targetCubes == null) {
+            return;
+        }
+
+        // cubes whose population contributes to the targets, and the cubes their populators need
+        Set<CubePos> toPopulate = new LinkedHashSet<>();
+        Map<CubePos, Box> pregenerationBoxes = new HashMap<>();
+        List<Cube> unpopulatedTargets = new ArrayList<>();
+        for (Cube target : targetCubes.values()) {
+            if (target.isFullyPopulated()) {
+                continue;
+            }
+            unpopulatedTargets.add(target);
+            Box fullPopulation = withVanillaRange(target, generator.getFullPopulationRequirements(target));
+            fullPopulation.forEachPoint((x, y, z) -> toPopulate.add(new CubePos(x + target.getX(), y + target.getY(), z + target.getZ())));
+        }
+        if (unpopulatedTargets.isEmpty()) {
+            return;
+        }
+        Map<CubePos, Cube> populatedCubes = getCubes(toPopulate, budget);
+        if (populatedCubes == null) {
+            return;
+        }
+
+        Set<CubePos> toGenerate = new LinkedHashSet<>();
+        for (Cube target : unpopulatedTargets) {
+            Box fullPopulation = withVanillaRange(target, generator.getFullPopulationRequirements(target));
+            fullPopulation.forEachPoint((x, y, z) -> {
+                Cube cube = populatedCubes.get(new CubePos(x + target.getX(), y + target.getY(), z + target.getZ()));
+                if (cube.isPopulated()) {
+                    return;
+                }
+                Box pregeneration = withVanillaRange(target, generator.getPopulationPregenerationRequirements(cube));
+                pregeneration.forEachPoint((nx, ny, nz) -> toGenerate.add(new CubePos(cube.getX() + nx, cube.getY() + ny, cube.getZ() + nz)));
+            });
+        }
+        toGenerate.removeAll(populatedCubes.keySet());
+        if (getCubes(toGenerate, budget) == null) {
+            return;
+        }
+
+        // every cube any of the populators needs is generated now
+        for (CubePos pos : toPopulate) {
+            Cube cube = populatedCubes.get(pos);
+            // a check for populators that populate more than one cube (vanilla compatibility generator)
+            if (!cube.isPopulated()) {
+                if (budget != null && !budget.spend()) {
+                    return;
+                }
+                generator.populate(cube);
+                cube.setPopulated(true);
+            }
+        }
+        for (Cube target : unpopulatedTargets) {
+            if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
+                Box.Mutable box = generator.getFullPopulationRequirements(target).asMutable();
+                box.setY1(0);
+                box.setY2(0);
+                box.forEachPoint((x, y, z) -> provider.generateVanillaWorld(target.getX() + x, target.getZ() + z));
+            }
+            target.setFullyPopulated(true);
+        }
+    }
+
+    /**
+     * Vanilla world generators populate whole columns, so with them the requirements of cubes in the vanilla height
+     * range extend over the whole range.
+     */
+    private static Box withVanillaRange(Cube target, Box box) {
+        if (CubicChunksConfig.useVanillaChunkWorldGenerators && target.getY() >= 0 && target.getY() < 16) {
+            return new Box(
+                    0, -target.getY(), 0,
+                    0, 16 - target.getY() - 1, 0
+            ).add(box);
+        }
+        return box;
+    }
+
+    /**
+     * Get the cubes at the given positions, loading or generating the ones that aren't loaded.
+     *
+     * @return the cubes, or null if some of them are still being loaded or the budget ran out
+     */
+    @Nullable
+    private Map<CubePos, Cube> getCubes(Collection<CubePos> positions, @Nullable Budget budget) {
+        Map<CubePos, Cube> cubes = new HashMap<>(positions.size() * 2);
+        List<CubePos> missing = new ArrayList<>();
+        for (CubePos pos : positions) {
+            Cube cube = provider.getLoadedCube(pos);
+            if (cube != null) {
+                cubes.put(pos, cube);
+            } else {
+                missing.add(pos);
+            }
+        }
+        if (missing.isEmpty()) {
+            return cubes;
+        }
+        if (budget != null) {
+            return getCubesAsync(cubes, missing, budget);
+        }
+
+        // queue all loads first, the IO threads read them while the server thread waits for the first ones
+        for (CubePos pos : missing) {
+            provider.asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.LOAD, NO_CALLBACK);
+        }
+        List<CubePos> notSaved = new ArrayList<>();
+        for (CubePos pos : missing) {
+            Cube cube = provider.getCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.LOAD);
+            if (cube != null) {
+                cubes.put(pos, cube);
+            } else {
+                notSaved.add(pos);
+            }
+        }
+
+        prepareCubes(notSaved);
+        for (CubePos pos : notSaved) {
+            Cube cube = provider.getCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.GENERATE);
+            assert cube != null;
+            cubes.put(pos, cube);
+        }
+        return cubes;
+    }
+
+    /**
+     * Starts the loads of the saved missing cubes and generates the missing cubes that aren't saved once nothing is
+     * loading anymore.
+     */
+    @Nullable
+    private Map<CubePos, Cube> getCubesAsync(Map<CubePos, Cube> cubes, List<CubePos> missing, Budget budget) {
+        boolean waiting = false;
+        List<CubePos> notSaved = new ArrayList<>();
+        for (CubePos pos : missing) {
+            if (loading.contains(pos)) {
+                waiting = true;
+            } else if (provider.isCubeGenerated(pos.getX(), pos.getY(), pos.getZ())) {
+                loading.add(pos);
+                provider.asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.LOAD, cube -> loading.remove(pos));
+                waiting = true;
+            } else {
+                notSaved.add(pos);
+            }
+        }
+        prepareCubes(notSaved);
+        if (waiting) {
+            return null;
+        }
+        for (CubePos pos : notSaved) {
+            if (!budget.spend()) {
+                return null;
+            }
+            Cube cube = provider.getCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.GENERATE);
+            assert cube != null;
+            cubes.put(pos, cube);
+        }
+        return cubes;
+    }
+
+    /**
+     * Start generating the terrain of the given cubes on worker threads, if the generator supports it.
+     */
+    private void prepareCubes(List<CubePos> positions) {
+        if (!provider.canPrepareCubes()) {
+            return;
+        }
+        for (CubePos pos : positions) {
+            if (!provider.prepareCube(pos.getX(), pos.getY(), pos.getZ(), Double.NEGATIVE_INFINITY)) {
+                break;
+            }
+        }
+    }
+
+    private static final class Budget {
+
+        private final long stopTime;
+        private int cubes;
+
+        Budget(long stopTime, int cubes) {
+            this.stopTime = stopTime;
+            this.cubes = cubes;
+        }
+
+        /**
+         * @return false if there's no time or cubes left for one more cube
+         */
+        boolean spend() {
+            if (cubes <= 0 || System.nanoTime() >= stopTime) {
+                return false;
+            }
+            cubes--;
+            return true;
+        }
+    }
+}
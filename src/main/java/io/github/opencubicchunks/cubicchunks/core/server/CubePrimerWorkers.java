@@ -0,0 +1,232 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Generates cube primers on worker threads ahead of the cubes being generated on the server thread, for cube
+ * generators that declare {@link ICubeGenerator#isCubeGenerationThreadSafe()}.
+ * <p>
+ * {@link PlayerCubeMap} requests primers for the cubes it will generate next, closest to players first. When
+ * {@link CubeProviderServer} generates a cube, it takes the finished primer, waits for one that is being generated, or
+ * generates it itself if no worker has started it yet. The worker threads are shared by all worlds. All methods except
+ * the worker tasks themselves are called on the server thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class CubePrimerWorkers {
+
+    // primers that haven't been taken for this many ticks are dropped, the cube is probably not needed anymore
+    private static final long EXPIRE_TICKS = 200;
+    // outstanding primers per world and worker thread, about 8 kB each
+    private static final int MAX_QUEUED_PER_THREAD = 32;
+
+    private static final AtomicLong nextSequence = new AtomicLong();
+    private static final Comparator<Runnable> PRIORITY_ORDER = (r1, r2) -> {
+        PrimerTask t1 = (PrimerTask) r1;
+        PrimerTask t2 = (PrimerTask) r2;
+        int cmp = Double.compare(t1.priority, t2.priority);
+        return cmp != 0 ? cmp : Long.compare(t1.sequence, t2.sequence);
+    };
+
+    @Nullable private static volatile ThreadPoolExecutor executor;
+
+    private final ICubeGenerator generator;
+    private final Map<CubePos, PrimerTask> tasks = new HashMap<>();
+
+    CubePrimerWorkers(ICubeGenerator generator) {
+        this.generator = generator;
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            int threads = CubicChunksConfig.cubeGenerationThreads;
+            if (threads <= 0) {
+                threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            }
+            AtomicInteger threadCounter = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<>(11, PRIORITY_ORDER),
+                    r -> {
+                        Thread thread = new Thread(r, "Cube Generator Thread #" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        // the server thread is more important, it waits for primers that are already being generated
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * @return true if primers can be requested, false if the generator isn't thread-safe or concurrent generation is
+     * disabled
+     */
+    static boolean isSupported(ICubeGenerator generator) {
+        return CubicChunksConfig.concurrentCubeGeneration && generator.isCubeGenerationThreadSafe();
+    }
+
+    /**
+     * Request the primer of a cube to be generated on a worker thread.
+     *
+     * @param pos position of the cube
+     * @param priority lower is generated first
+     * @param time current world time
+     * @return false if too many primers are already outstanding, no more should be requested this tick
+     */
+    boolean request(CubePos pos, double priority, long time) {
+        PrimerTask task = tasks.get(pos);
+        if (task != null) {
+            task.lastRequested = time;
+            return true;
+        }
+        ThreadPoolExecutor executor = executor();
+        if (tasks.size() >= executor.getMaximumPoolSize() * MAX_QUEUED_PER_THREAD) {
+            return false;
+        }
+        task = new PrimerTask(pos, priority, time);
+        tasks.put(pos, task);
+        executor.execute(task);
+        return true;
+    }
+
+    /**
+     * Take the primer of a cube if it has been requested. Waits for the primer if a worker is generating it.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @return the primer, or null if it should be generated by the caller
+     */
+    @Nullable
+    CubePrimer take(int cubeX, int cubeY, int cubeZ) {
+        if (tasks.isEmpty()) {
+            return null;
+        }
+        PrimerTask task = tasks.remove(new CubePos(cubeX, cubeY, cubeZ));
+        if (task == null || task.cancel()) {
+            // not requested, or no worker has started it yet. Generating it here is faster than waiting
+            return null;
+        }
+        try {
+            return task.result.join();
+        } catch (CompletionException e) {
+            CubicChunks.LOGGER.error("Failed to generate cube primer at {} on a worker thread, generating it again", task.pos, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Drop primers that haven't been requested for a while.
+     *
+     * @param time current world time
+     */
+    void tick(long time) {
+        Iterator<PrimerTask> it = tasks.values().iterator();
+        while (it.hasNext()) {
+            PrimerTask task = it.next();
+            if (time - task.lastRequested > EXPIRE_TICKS) {
+                task.cancel();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop all outstanding primers.
+     */
+    void clear() {
+        for (PrimerTask task : tasks.values()) {
+            task.cancel();
+        }
+        tasks.clear();
+    }
+
+    private final class PrimerTask implements Runnable {
+
+        final CubePos pos;
+        final double priority;
+        final long sequence = nextSequence.getAndIncrement();
+        final AtomicBoolean started = new AtomicBoolean();
+        final CompletableFuture<CubePrimer> result = new CompletableFuture<>();
+        long lastRequested;
+
+        PrimerTask(CubePos pos, double priority, long time) {
+            this.pos = pos;
+            this.priority = priority;
+            this.lastRequested = time;
+        }
+
+        /**
+         * Prevent the task from running if it hasn't started yet.
+         *
+         * @return true if the task won't run, false if it has already started
+         */
+        boolean cancel() {
+            if (started.compareAndSet(false, true)) {
+                ThreadPoolExecutor executor = CubePrimerWorkers.executor;
+                if (executor != null) {
+                    executor.remove(this);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                result.complete(generator.generateCube(pos.getX(), pos.getY(), pos.getZ()));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+}
@@ -34,7 +34,6 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.asm.CubicChunksMixinConfig;
-import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
@@ -56,6 +55,8 @@ import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -88,6 +89,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Nonnull private ICubeGenerator cubeGen;
     @Nonnull private Profiler profiler;
+    // null if the generator can't generate cubes on other threads
+    @Nullable private CubePrimerWorkers primerWorkers;
+    @Nonnull private CubePopulationScheduler populationScheduler;
 
     public CubeProviderServer(WorldServer worldServer, ICubeGenerator cubeGen) {
         super(worldServer,
@@ -97,6 +101,10 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         this.cubeGen = cubeGen;
         this.worldServer = worldServer;
         this.profiler = worldServer.profiler;
+        this.populationScheduler = new CubePopulationScheduler(this, cubeGen);
+        if (CubePrimerWorkers.isSupported(cubeGen)) {
+            this.primerWorkers = new CubePrimerWorkers(cubeGen);
+        }
         try {
             this.cubeIO = new RegionCubeIO(worldServer);
         } catch (IOException e) {
@@ -155,7 +163,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         }
 
         // TODO here too
-        asyncGetColumn(columnX, columnZ, Requirement.LIGHT, col -> runnable.run());
+        asyncGetColumn(columnX, columnZ, Requirement.LIGHT, runnable, col -> runnable.run());
         return null;
     }
 
@@ -176,6 +184,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Override
     public boolean saveChunks(boolean alwaysTrue) {
+        // light computed asynchronously is applied to the cubes first, so that it's saved with them
+        ((ICubicWorldInternal) world).getLightingManager().finishAsyncLighting();
         for (Cube cube : cubeMap) { // save cubes
             if (cube.needsSaving()) {
                 this.cubeIO.saveCube(cube);
@@ -200,17 +210,71 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         PlayerCubeMap playerCubeMap = ((PlayerCubeMap) this.world.getPlayerChunkMap());
         Iterator<Cube> watchersIterator = playerCubeMap.getCubeIterator();
         BooleanSupplier tickFaster = () -> System.currentTimeMillis() - i > 40;
-        while (watchersIterator.hasNext()) {
-            watchersIterator.next().tickCubeServer(tickFaster, rand);
+        // relight all cubes ticked below together
+        LightingManager lightingManager = ((ICubicWorldInternal) world).getLightingManager();
+        lightingManager.beginBatch();
+        try {
+            while (watchersIterator.hasNext()) {
+                watchersIterator.next().tickCubeServer(tickFaster, rand);
+            }
+        } finally {
+            lightingManager.endBatch();
+        }
+        if (primerWorkers != null) {
+            primerWorkers.tick(worldServer.getTotalWorldTime());
         }
+        cubeIO.tick();
         profiler.endSection();
         return false;
     }
 
+    /**
+     * @return true if the terrain of cubes can be generated ahead of time using {@link #prepareCube}
+     */
+    boolean canPrepareCubes() {
+        return primerWorkers != null;
+    }
+
+    /**
+     * Start generating the terrain of a cube on a worker thread, if the cube generator supports it. The cube itself
+     * is still created and populated on the server thread when it's generated, which then only has to wait for the
+     * terrain if it isn't ready yet. Has to be called again at least every few seconds while the cube is still needed.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @param priority lower values are generated first
+     * @return false if no more cubes should be prepared this tick
+     */
+    boolean prepareCube(int cubeX, int cubeY, int cubeZ, double priority) {
+        if (primerWorkers == null) {
+            return false;
+        }
+        if (getLoadedCube(cubeX, cubeY, cubeZ) != null) {
+            return true;
+        }
+        return primerWorkers.request(new CubePos(cubeX, cubeY, cubeZ), priority, worldServer.getTotalWorldTime());
+    }
+
+    /**
+     * Drop the cubes being prepared by {@link #prepareCube}. Called when the world is unloaded.
+     */
+    public void dropPreparedCubes() {
+        if (primerWorkers != null) {
+            primerWorkers.clear();
+        }
+    }
+
+    private AsyncWorldIOExecutor ioExecutor() {
+        return ((ICubicWorldInternal.Server) this.worldServer).getAsyncIOExecutor();
+    }
+
     @Override
     public String makeString() {
         return "CubeProviderServer: " + this.loadedChunks.size() + " columns, "
-                + this.cubeMap.getSize() + " cubes";
+                + this.cubeMap.getSize() + " cubes, saving " + cubeIO.getPendingColumnCount() + " columns, "
+                + cubeIO.getPendingCubeCount() + " cubes (" + cubeIO.getPendingSaveBytes() / 1024 + " kB, oldest "
+                + cubeIO.getOldestPendingSaveAge() + " ms), loading " + AsyncWorldIOExecutor.getPoolStats();
     }
 
     @Override
@@ -280,7 +344,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         }
 
         if (cube == null) {
-            AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, loaded -> {
+            ioExecutor().queueCubeLoad(cubeIO, this, cubeX, cubeY, cubeZ, callback, loaded -> {
                 Chunk col = getLoadedColumn(cubeX, cubeZ);
                 if (col != null) {
                     onCubeLoaded(loaded, col);
@@ -308,7 +372,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (cube == null) {
             // a little hack to fix StackOverflowError when loading TileEntities, as Cube methods are now redirected into IColumn
             // Column needs cube to be loaded to add TileEntity, so make CubeProvider contain it already
-            cube = AsyncWorldIOExecutor.syncCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ);
+            cube = ioExecutor().syncCubeLoad(cubeIO, this, cubeX, cubeY, cubeZ);
             onCubeLoaded(cube, column);
         }
 
@@ -403,7 +467,10 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @return The generated cube
      */
     private Cube generateCube(int cubeX, int cubeY, int cubeZ, Chunk column) {
-        CubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        CubePrimer primer = primerWorkers == null ? null : primerWorkers.take(cubeX, cubeY, cubeZ);
+        if (primer == null) {
+            primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        }
         Cube cube = new Cube(column, cubeY, primer);
 
         onCubeLoaded(cube, column);
@@ -420,79 +487,46 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @param cube The cube to populate
      */
     private void populateCube(Cube cube) {
-        int cubeX = cube.getX();
-        int cubeY = cube.getY();
-        int cubeZ = cube.getZ();
-
-        // for all cubes needed for full population - generate their population requirements
-        Box fullPopulation = cubeGen.getFullPopulationRequirements(cube);
-        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-            if (cube.getY() >= 0 && cube.getY() < 16) {
-                fullPopulation = new Box(
-                        0, -cube.getY(), 0,
-                        0, 16 - cube.getY() - 1, 0
-                ).add(fullPopulation);
-            }
-        }
-        fullPopulation.forEachPoint((x, y, z) -> {
-            // this also generates the cube
-            Cube fullPopulationCube = getCube(x + cubeX, y + cubeY, z + cubeZ);
-            Box newBox = cubeGen.getPopulationPregenerationRequirements(fullPopulationCube);
-            if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-                if (cube.getY() >= 0 && cube.getY() < 16) {
-                    newBox = new Box(
-                            0, -cube.getY(), 0,
-                            0, 16 - cube.getY() - 1, 0
-                    ).add(newBox);
-                }
-            }
-            newBox.forEachPoint((nx, ny, nz) -> {
-                int genX = cubeX + x + nx;
-                int genY = cubeY + y + ny;
-                int genZ = cubeZ + z + nz;
-                getCube(genX, genY, genZ);
-            });
-            // a check for populators that populate more than one cube (vanilla compatibility generator)
-            if (!fullPopulationCube.isPopulated()) {
-                cubeGen.populate(fullPopulationCube);
-                fullPopulationCube.setPopulated(true);
-            }
-        });
-        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-            Box.Mutable box = fullPopulation.asMutable();
-            box.setY1(0);
-            box.setY2(0);
-            box.forEachPoint((x, y, z) -> {
-                GameRegistry.generateWorld(cube.getX() + x, cube.getZ() + z, world, chunkGenerator, world.getChunkProvider());
-            });
-        }
-        cube.setFullyPopulated(true);
+        populationScheduler.populate(Collections.singletonList(cube.getCoords()));
+    }
+
+    /**
+     * Fully populate a batch of cubes, loading or generating them and the cubes needed for their population together.
+     * Doesn't wait for cube loads, cubes that have to be loaded first are populated by a later call once they are loaded.
+     *
+     * @param cubes positions of the cubes to populate
+     * @param stopTime {@link System#nanoTime()} after which no more cubes are generated or populated
+     * @param maxCubes the maximum number of cubes to generate or populate
+     * @return the number of cubes generated or populated
+     */
+    int populateCubes(Collection<CubePos> cubes, long stopTime, int maxCubes) {
+        return populationScheduler.populate(cubes, stopTime, maxCubes);
+    }
+
+    /**
+     * Run the vanilla and Forge world generators of a column, used with
+     * {@link CubicChunksConfig#useVanillaChunkWorldGenerators}
+     *
+     * @param columnX column x position
+     * @param columnZ column z position
+     */
+    void generateVanillaWorld(int columnX, int columnZ) {
+        GameRegistry.generateWorld(columnX, columnZ, world, chunkGenerator, world.getChunkProvider());
     }
 
     /**
-     * Initialize skylight for the cube at the specified position, generating surrounding cubes as needed.
+     * Initialize block light and skylight for the cube at the specified position. Only already loaded cubes are used,
+     * light is spread into the other cubes when they load.
      *
      * @param cube The cube to light up
      */
     private void calculateDiffuseSkylight(Cube cube) {
+        // block light only spreads into loaded cubes, cubes generated later pull it in with their own block light pass
+        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().initializeBlockLight(cube);
         if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
             cube.setInitialLightingDone(true);
             return;
         }
-        int cubeX = cube.getX();
-        int cubeY = cube.getY();
-        int cubeZ = cube.getZ();
-
-        // TODO: remove this loop; Does it break anything?
-        for (int x = -2; x <= 2; x++) {
-            for (int z = -2; z <= 2; z++) {
-                for (int y = 2; y >= -2; y--) {
-                    if (x != 0 || y != 0 || z != 0) {
-                        getCube(x + cubeX, y + cubeY, z + cubeZ);
-                    }
-                }
-            }
-        }
         ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
     }
 
@@ -510,13 +544,21 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @see CubeProviderServer#getColumn(int, int, Requirement) for the synchronous variant of this method
      */
     public void asyncGetColumn(int columnX, int columnZ, Requirement req, Consumer<Chunk> callback) {
+        asyncGetColumn(columnX, columnZ, req, callback, callback);
+    }
+
+    /**
+     * Like {@link #asyncGetColumn(int, int, Requirement, Consumer)}, but the load can be dropped using the given key
+     * instead of the callback itself.
+     */
+    private void asyncGetColumn(int columnX, int columnZ, Requirement req, Object callbackKey, Consumer<Chunk> callback) {
         Chunk column = getLoadedColumn(columnX, columnZ);
         if (column != null || req == Requirement.GET_CACHED) {
             callback.accept(column);
             return;
         }
 
-        AsyncWorldIOExecutor.queueColumnLoad(worldServer, cubeIO, columnX, columnZ, col -> {
+        ioExecutor().queueColumnLoad(cubeIO, columnX, columnZ, callbackKey, col -> {
             col = postProcessColumn(columnX, columnZ, col, req);
             callback.accept(col);
         });
@@ -529,7 +571,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             return column;
         }
 
-        column = AsyncWorldIOExecutor.syncColumnLoad(worldServer, cubeIO, columnX, columnZ);
+        column = ioExecutor().syncColumnLoad(cubeIO, columnX, columnZ);
         column = postProcessColumn(columnX, columnZ, column, req);
 
         return column;
@@ -617,6 +659,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (!cube.getTickets().canUnload()) {
             return false; // There are tickets
         }
+        if (cube.needsSaving() && cubeIO.isSaveQueueFull()) {
+            return false; // keep it loaded until the save queue has room, it will be unloaded later by ChunkGC
+        }
 
         // unload the Cube!
         cube.onUnload();
@@ -625,6 +670,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             this.cubeIO.saveCube(cube);
         }
 
+        this.cubeIO.markCubeUnloaded(cube.getCoords());
+
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
         }
@@ -641,7 +688,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         }
         // ask async loader if there are currently any cubes being loaded for this column
         // this should prevent hard to debug issues with columns being unloaded while cubes have reference to them
-        if (!AsyncWorldIOExecutor.canDropColumn(worldServer, column.x, column.z)) {
+        if (!ioExecutor().canDropColumn(column.x, column.z)) {
             return false;
         }
         column.unloadQueued = true;
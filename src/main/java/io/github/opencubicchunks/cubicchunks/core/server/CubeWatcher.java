@@ -38,7 +38,6 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketUnloadCube;
-import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -127,9 +126,9 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
             if (this.players.isEmpty()) {
                 if (loading) {
-                    AsyncWorldIOExecutor.dropQueuedCubeLoad(this.playerCubeMap.getWorldServer(),
+                    ((ICubicWorldInternal.Server) this.playerCubeMap.getWorldServer()).getAsyncIOExecutor().dropQueuedCubeLoad(
                             cubePos.getX(), cubePos.getY(), cubePos.getZ(),
-                            c -> this.cube = c);
+                            consumer);
                 }
                 invalid = true;
                 playerCubeMap.removeEntry(this);
@@ -225,6 +224,18 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         playerCubeMap.scheduleSendCubeToPlayer(cube, player);
     }
 
+    /**
+     * Sends the whole cube again to the players it has already been sent to. Used for changes that have no packet of
+     * their own, like block light.
+     */
+    public void resendToPlayers() {
+        if (!this.sentToPlayers) {
+            return;
+        }
+        assert cube != null;
+        this.players.forEach(entry -> playerCubeMap.scheduleSendCubeToPlayer(cube, entry));
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     void updateInhabitedTime() {
         final long now = getWorldTime();
@@ -374,6 +385,10 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         }
     }
 
+    boolean isLoading() {
+        return loading;
+    }
+
     CubePos getCubePos() {
         return cubePos;
     }
@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.server;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
 import static net.minecraft.util.math.MathHelper.clamp;
 
 import com.google.common.base.Predicate;
@@ -49,6 +50,7 @@ import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
@@ -77,6 +79,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -97,6 +100,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
+    // how many of the cubes waiting to be generated are checked for preparing their terrain on worker threads each tick
+    private static final int PREPARE_CUBES_LOOKAHEAD = 2048;
+    // how many cubes waiting to be generated are populated together each tick
+    private static final int POPULATION_BATCH_SIZE = 16;
+
     /**
      * Comparator that specifies order in which cubes will be generated and sent to clients
      */
@@ -327,6 +335,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             this.toGenerateNeedSort = false;
             this.cubesToGenerate.sort();
             this.columnsToGenerate.sort();
+            // load the cubes and columns closest to players first
+            AsyncWorldIOExecutor ioExecutor = ((ICubicWorldInternal.Server) getWorldServer()).getAsyncIOExecutor();
+            ioExecutor.updateCubeLoadPriorities(this::getCubeLoadPriority);
+            ioExecutor.updateColumnLoadPriorities(this::getColumnLoadPriority);
         }
         getWorldServer().profiler.endStartSection("sortToSend");
         //sort cubesToSendToClients every other 4 ticks
@@ -337,6 +349,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         }
 
         getWorldServer().profiler.endStartSection("generate");
+        // when the disk can't keep up, only load existing cubes and columns, generated ones would only grow the save queue
+        boolean saveQueueFull = cubeCache.getCubeIO().isSaveQueueFull();
         if (!this.columnsToGenerate.isEmpty()) {
             getWorldServer().profiler.startSection("columns");
             Iterator<ColumnWatcher> iter = this.columnsToGenerate.iterator();
@@ -345,7 +359,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
                 boolean success = entry.getChunk() != null;
                 if (!success) {
-                    boolean canGenerate = entry.hasPlayerMatching(CAN_GENERATE_CHUNKS);
+                    boolean canGenerate = !saveQueueFull && entry.hasPlayerMatching(CAN_GENERATE_CHUNKS);
                     getWorldServer().profiler.startSection("generate");
                     success = entry.providePlayerChunk(canGenerate);
                     getWorldServer().profiler.endSection(); // generate
@@ -365,8 +379,20 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         if (!this.cubesToGenerate.isEmpty()) {
             getWorldServer().profiler.startSection("cubes");
 
+            if (!saveQueueFull && cubeCache.canPrepareCubes()) {
+                getWorldServer().profiler.startSection("prepare");
+                prepareCubesToGenerate();
+                getWorldServer().profiler.endSection();
+            }
+
             long stopTime = System.nanoTime() + 50000000L;
             int chunksToGenerate = CubicChunksConfig.maxGeneratedCubesPerTick;
+
+            if (!saveQueueFull) {
+                getWorldServer().profiler.startSection("populate");
+                chunksToGenerate -= populateCubesToGenerate(Math.min(chunksToGenerate, POPULATION_BATCH_SIZE), stopTime);
+                getWorldServer().profiler.endSection();
+            }
             Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
 
             while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
@@ -374,7 +400,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 boolean success = watcher.getCube() != null && watcher.getCube().isFullyPopulated() && watcher.getCube().isInitialLightingDone() &&
                         !watcher.getCube().hasLightUpdates();
                 if (!success) {
-                    boolean canGenerate = watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
+                    boolean canGenerate = !saveQueueFull && watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
                     getWorldServer().profiler.startSection("generate");
                     success = watcher.providePlayerCube(canGenerate);
                     getWorldServer().profiler.endSection();
@@ -449,6 +475,51 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         getWorldServer().profiler.endSection();//playerCubeMapTick
     }
 
+    /**
+     * Start generating the terrain of the cubes that will be generated next on worker threads, so that the generation
+     * loop only has to create and populate them.
+     */
+    private void prepareCubesToGenerate() {
+        int toCheck = PREPARE_CUBES_LOOKAHEAD;
+        for (CubeWatcher watcher : this.cubesToGenerate) {
+            if (--toCheck < 0) {
+                break;
+            }
+            // cubes that are still loading may exist on disk, and don't need to be generated
+            if (watcher.getCube() != null || watcher.isLoading() || !watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS)) {
+                continue;
+            }
+            CubePos pos = watcher.getCubePos();
+            if (!cubeCache.prepareCube(pos.getX(), pos.getY(), pos.getZ(), watcher.getClosestPlayerDistance())) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Populate the next cubes waiting to be generated in one batch, so that the cubes they need are loaded and
+     * generated together. The generation loop then only has to light and send them.
+     *
+     * @return the number of cubes generated or populated, which count against the cubes generated this tick
+     */
+    private int populateCubesToGenerate(int maxCubes, long stopTime) {
+        List<CubePos> batch = new ArrayList<>(maxCubes);
+        for (CubeWatcher watcher : this.cubesToGenerate) {
+            if (batch.size() >= maxCubes) {
+                break;
+            }
+            Cube cube = watcher.getCube();
+            if (watcher.isLoading() || (cube != null && cube.isFullyPopulated()) || !watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS)) {
+                continue;
+            }
+            batch.add(watcher.getCubePos());
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        return cubeCache.populateCubes(batch, stopTime, maxCubes);
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     @Override
     public boolean contains(int cubeX, int cubeZ) {
@@ -461,6 +532,44 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         return this.columnWatchers.get(cubeX, cubeZ);
     }
 
+    /**
+     * Priority of an async cube load, the squared distance to the closest player watching the cube. Loads are queued
+     * before their watcher has players, so cubes without watching players use the closest player in the world.
+     */
+    private double getCubeLoadPriority(int cubeX, int cubeY, int cubeZ) {
+        CubeWatcher watcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
+        double distance = watcher == null ? Double.MAX_VALUE : watcher.getClosestPlayerDistance();
+        if (distance != Double.MAX_VALUE) {
+            return distance;
+        }
+        double x = cubeToCenterBlock(cubeX), y = cubeToCenterBlock(cubeY), z = cubeToCenterBlock(cubeZ);
+        for (PlayerWrapper player : this.players.valueCollection()) {
+            EntityPlayerMP entity = player.playerEntity;
+            double dx = x - entity.posX, dy = y - entity.posY, dz = z - entity.posZ;
+            distance = Math.min(distance, dx * dx + dy * dy + dz * dz);
+        }
+        return distance;
+    }
+
+    /**
+     * Priority of an async column load, the horizontal squared distance to the closest player watching the column, or
+     * to the closest player in the world if no player watches it yet. See {@link #getCubeLoadPriority(int, int, int)}.
+     */
+    private double getColumnLoadPriority(int columnX, int columnZ) {
+        ColumnWatcher watcher = this.columnWatchers.get(columnX, columnZ);
+        double distance = watcher == null ? Double.MAX_VALUE : watcher.getClosestPlayerDistance();
+        if (distance != Double.MAX_VALUE) {
+            return distance;
+        }
+        double x = cubeToCenterBlock(columnX), z = cubeToCenterBlock(columnZ);
+        for (PlayerWrapper player : this.players.valueCollection()) {
+            EntityPlayerMP entity = player.playerEntity;
+            double dx = x - entity.posX, dz = z - entity.posZ;
+            distance = Math.min(distance, dx * dx + dz * dz);
+        }
+        return distance;
+    }
+
     /**
      * Returns existing CubeWatcher or creates new one if it doesn't exist.
      * Attempts to load the cube and send it to client.
@@ -494,14 +603,21 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     /**
      * Returns existing ColumnWatcher or creates new one if it doesn't exist.
      * Always creates the Column.
+     *
+     * @param chunkPos position of the column
+     * @param playerCubeY cube Y position of the player the column is created for
+     * @param verticalDistance vertical view distance of that player, cubes in this range are read ahead when the column
+     * has to be loaded
      */
-    private ColumnWatcher getOrCreateColumnWatcher(ChunkPos chunkPos) {
+    private ColumnWatcher getOrCreateColumnWatcher(ChunkPos chunkPos, int playerCubeY, int verticalDistance) {
         ColumnWatcher columnWatcher = this.columnWatchers.get(chunkPos.x, chunkPos.z);
         if (columnWatcher == null) {
             columnWatcher = new ColumnWatcher(this, chunkPos);
             this.columnWatchers.put(columnWatcher);
             if (columnWatcher.getChunk() == null) {
                 this.columnsToGenerate.appendToEnd(columnWatcher);
+                ((ICubicWorldInternal.Server) getWorldServer()).getAsyncIOExecutor().prefetchColumnCubes(chunkPos.x, chunkPos.z,
+                        playerCubeY - verticalDistance, playerCubeY + verticalDistance);
             }
             if (!columnWatcher.sendToPlayers()) {
                 this.columnsToSendToClients.appendToEnd(columnWatcher);
@@ -554,7 +670,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (currentPos) -> {
             //create cubeWatcher and chunkWatcher
             //order is important
-            ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(currentPos.chunkPos());
+            ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(currentPos.chunkPos(), playerCubePos.getY(), verticalViewDistance);
             //and add the player to them
             if (!chunkWatcher.containsPlayer(player)) {
                 chunkWatcher.addPlayer(player);
@@ -659,7 +775,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         getWorldServer().profiler.endStartSection("createColumns");
         //order is important, columns first
         columnsToLoad.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos);
+            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos, newPos.getY(), verticalViewDistance);
             assert columnWatcher.getPos().equals(pos);
             columnWatcher.addPlayer(entry.playerEntity);
         });
@@ -747,7 +863,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 //if newRadius is bigger, we only need to load new cubes
                 this.cubeSelector.forAllVisibleFrom(playerPos, newHorizontalViewDistance, newVerticalViewDistance, pos -> {
                     //order is important
-                    ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos.chunkPos());
+                    ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos.chunkPos(), playerPos.getY(), newVerticalViewDistance);
                     if (!columnWatcher.containsPlayer(player)) {
                         columnWatcher.addPlayer(player);
                     }
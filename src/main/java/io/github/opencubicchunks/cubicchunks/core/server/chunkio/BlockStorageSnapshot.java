@@ -0,0 +1,145 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IBlockStateContainer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.BitArray;
+import net.minecraft.world.chunk.IBlockStatePalette;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable copy of the block and light data of a cube. It is taken on the server thread when a cube is saved, so that
+ * the per-block NBT encoding can be done later on the IO thread without racing with changes to the live cube.
+ * <p>
+ * Taking a snapshot never looks at individual blocks, it only copies the packed arrays backing the
+ * {@link ExtendedBlockStorage} and the (at most 256 entry) local palette.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class BlockStorageSnapshot {
+
+    /**
+     * Containers with more bits per block than this store global block state IDs instead of palette indices.
+     * See {@code BlockStateContainer.setBits}.
+     */
+    private static final int MAX_LOCAL_PALETTE_BITS = 8;
+
+    private final BitArray storage;
+    /**
+     * The local palette of the container, or null if {@link #storage} contains global block state IDs.
+     */
+    @Nullable private final IBlockState[] palette;
+    /**
+     * Global block state IDs of the palette entries, computed on first use
+     */
+    @Nullable private int[] paletteIds;
+    private final byte[] blockLight;
+    @Nullable private final byte[] skyLight;
+
+    private BlockStorageSnapshot(BitArray storage, @Nullable IBlockState[] palette, byte[] blockLight, @Nullable byte[] skyLight) {
+        this.storage = storage;
+        this.palette = palette;
+        this.blockLight = blockLight;
+        this.skyLight = skyLight;
+    }
+
+    static BlockStorageSnapshot of(ExtendedBlockStorage ebs, boolean hasSkyLight) {
+        IBlockStateContainer container = (IBlockStateContainer) ebs.getData();
+        int bits = container.getBits();
+
+        long[] liveData = container.getStorage().getBackingLongArray();
+        BitArray storage = new BitArray(bits, 4096);
+        System.arraycopy(liveData, 0, storage.getBackingLongArray(), 0, liveData.length);
+
+        IBlockState[] palette = bits > MAX_LOCAL_PALETTE_BITS ? null : copyPalette(container.getPalette(), bits);
+
+        byte[] blockLight = ebs.getBlockLight().getData().clone();
+        byte[] skyLight = hasSkyLight ? ebs.getSkyLight().getData().clone() : null;
+        return new BlockStorageSnapshot(storage, palette, blockLight, skyLight);
+    }
+
+    private static IBlockState[] copyPalette(IBlockStatePalette palette, int bits) {
+        // local palettes only ever grow and return null past the last entry
+        IBlockState[] states = new IBlockState[1 << bits];
+        int size = 0;
+        while (size < states.length) {
+            IBlockState state = palette.getBlockState(size);
+            if (state == null) {
+                break;
+            }
+            states[size++] = state;
+        }
+        return size == states.length ? states : Arrays.copyOf(states, size);
+    }
+
+    /**
+     * @param index block index in {@code y << 8 | z << 4 | x} order, the same as {@code BlockStateContainer}
+     * @return the block state at that index
+     */
+    IBlockState get(int index) {
+        int value = storage.getAt(index);
+        if (palette == null) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(value);
+            return state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+        return value < palette.length ? palette[value] : Blocks.AIR.getDefaultState();
+    }
+
+    /**
+     * @param index block index in {@code y << 8 | z << 4 | x} order, the same as {@code BlockStateContainer}
+     * @return the global block state ID at that index
+     */
+    @SuppressWarnings("deprecation")
+    int getStateId(int index) {
+        if (palette == null) {
+            return storage.getAt(index);
+        }
+        if (paletteIds == null) {
+            paletteIds = new int[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                paletteIds[i] = Block.BLOCK_STATE_IDS.get(palette[i]);
+            }
+        }
+        int value = storage.getAt(index);
+        return value < paletteIds.length ? paletteIds[value] : 0;
+    }
+
+    byte[] getBlockLight() {
+        return blockLight;
+    }
+
+    @Nullable byte[] getSkyLight() {
+        return skyLight;
+    }
+}
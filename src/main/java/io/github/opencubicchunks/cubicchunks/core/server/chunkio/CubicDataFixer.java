@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.datafix.FixTypes;
+import net.minecraft.util.datafix.IFixableData;
+import net.minecraftforge.common.util.CompoundDataFixer;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs data fixers on column and cube NBT loaded from disk.
+ * <p>
+ * The Forge data fixer walks the whole NBT tree (including all entities and tile entities) on every call, even when
+ * there is nothing to fix. Most cubes in an existing world have been saved by the current game version, so this checks
+ * the stored versions first and only runs the fixers when the vanilla version, one of the mod versions registered with
+ * Forge, or the version of one of the cubic chunks specific fixes registered here is newer than the stored one.
+ * <p>
+ * Mods that need to fix data that only exists in cubes and columns (and not in vanilla chunks) can register their fixes
+ * with {@link #registerFix(IFixableData)}. These are applied after the Forge fixers, in order of
+ * {@link IFixableData#getFixVersion()}, to NBT saved with an older "CubicDataVersion".
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class CubicDataFixer {
+
+    private static final String CUBIC_VERSION_KEY = "CubicDataVersion";
+    private static final String FORGE_VERSION_KEY = "ForgeDataVersion";
+
+    private static final List<IFixableData> cubicFixes = new CopyOnWriteArrayList<>();
+    private static volatile int cubicVersion = 0;
+    // versions of all mods with registered Forge fixers, read once as they are only registered during mod loading
+    @Nullable private static volatile Object2IntMap<String> currentModVersions;
+
+    private CubicDataFixer() {
+        throw new Error();
+    }
+
+    /**
+     * Registers a fix applied to column and cube NBT saved before {@link IFixableData#getFixVersion()}. Should be
+     * called during mod initialization, before any world is loaded.
+     *
+     * @param fix the fix
+     */
+    public static synchronized void registerFix(IFixableData fix) {
+        cubicFixes.add(fix);
+        cubicFixes.sort(Comparator.comparingInt(IFixableData::getFixVersion));
+        cubicVersion = Math.max(cubicVersion, fix.getFixVersion());
+    }
+
+    /**
+     * Fixes column or cube NBT loaded from disk, if it has been saved by an older version of the game or of any mod with
+     * registered fixers.
+     *
+     * @param nbt the loaded NBT
+     * @return the fixed NBT, the same instance if nothing needed fixing
+     */
+    static NBTTagCompound process(NBTTagCompound nbt) {
+        if (isUpToDate(nbt)) {
+            return nbt;
+        }
+        nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, nbt);
+        int version = nbt.getInteger(CUBIC_VERSION_KEY);
+        for (IFixableData fix : cubicFixes) {
+            if (fix.getFixVersion() > version) {
+                nbt = fix.fixTagCompound(nbt);
+            }
+        }
+        return nbt;
+    }
+
+    /**
+     * Writes the current data versions into column or cube NBT.
+     *
+     * @param nbt the column or cube NBT
+     */
+    static void writeVersionData(NBTTagCompound nbt) {
+        CompoundDataFixer fixer = FMLCommonHandler.instance().getDataFixer();
+        nbt.setInteger("DataVersion", fixer.version);
+        fixer.writeVersionData(nbt);
+        nbt.setInteger(CUBIC_VERSION_KEY, cubicVersion);
+    }
+
+    private static boolean isUpToDate(NBTTagCompound nbt) {
+        CompoundDataFixer fixer = FMLCommonHandler.instance().getDataFixer();
+        if (!nbt.hasKey("DataVersion", Constants.NBT.TAG_ANY_NUMERIC) || nbt.getInteger("DataVersion") < fixer.version) {
+            return false;
+        }
+        if (nbt.getInteger(CUBIC_VERSION_KEY) < cubicVersion) {
+            return false;
+        }
+        // Forge only writes versions of mods that registered fixers, so any mod missing from or older in the stored
+        // data has fixes that may need to run
+        NBTTagCompound storedMods = nbt.getCompoundTag(FORGE_VERSION_KEY);
+        for (Object2IntMap.Entry<String> mod : getCurrentModVersions(fixer).object2IntEntrySet()) {
+            if (!storedMods.hasKey(mod.getKey(), Constants.NBT.TAG_ANY_NUMERIC)
+                    || storedMods.getInteger(mod.getKey()) < mod.getIntValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object2IntMap<String> getCurrentModVersions(CompoundDataFixer fixer) {
+        Object2IntMap<String> versions = currentModVersions;
+        if (versions == null) {
+            NBTTagCompound current = new NBTTagCompound();
+            fixer.writeVersionData(current);
+            NBTTagCompound currentMods = current.getCompoundTag(FORGE_VERSION_KEY);
+            versions = new Object2IntOpenHashMap<>();
+            for (String mod : currentMods.getKeySet()) {
+                versions.put(mod, currentMods.getInteger(mod));
+            }
+            currentModVersions = versions;
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Remembers which entries of a save exist, so that existence checks don't have to go to the region files.
+ * <p>
+ * Entries are grouped into regions, each region has two bitmaps: one for entries whose existence is known, and one
+ * for entries that exist. Bits are only ever set, never cleared, as nothing is ever removed from a save. This allows
+ * reading and updating them without locks: if a save and a lookup race, the lookup may record the entry as missing, but
+ * the existence bit set by the save still wins.
+ * <p>
+ * At most a fixed number of regions is remembered, and everything is forgotten when the save is closed. Forgetting a
+ * region only means that the next existence checks in it go to the region file again.
+ *
+ * @param <K> region key type
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class EntryPresenceIndex<K> {
+
+    private final ConcurrentMap<K, AtomicLongArray> regions = new ConcurrentHashMap<>();
+    private final int words;
+    private final int maxRegions;
+
+    /**
+     * @param entriesPerRegion number of entries in one region, a multiple of 64
+     * @param maxRegions number of regions to remember at most
+     */
+    EntryPresenceIndex(int entriesPerRegion, int maxRegions) {
+        this.words = entriesPerRegion >>> 6;
+        this.maxRegions = maxRegions;
+    }
+
+    /**
+     * @param region the region key
+     * @param index index of the entry within the region
+     * @return whether the entry exists, or null if it's not known yet
+     */
+    @Nullable Boolean isPresent(K region, int index) {
+        AtomicLongArray bits = regions.get(region);
+        if (bits == null) {
+            return null;
+        }
+        long mask = 1L << index;
+        if ((bits.get(index >>> 6) & mask) == 0) {
+            return null;
+        }
+        return (bits.get(words + (index >>> 6)) & mask) != 0;
+    }
+
+    /**
+     * Records whether an entry exists.
+     *
+     * @param region the region key
+     * @param index index of the entry within the region
+     * @param present whether the entry exists
+     */
+    void set(K region, int index, boolean present) {
+        AtomicLongArray bits = regions.get(region);
+        if (bits == null) {
+            bits = regions.computeIfAbsent(region, r -> new AtomicLongArray(words * 2));
+            evict(region);
+        }
+        long mask = 1L << index;
+        // existence first, so that a reader never sees an entry known as missing when it has just been saved
+        if (present) {
+            bits.getAndAccumulate(words + (index >>> 6), mask, (a, b) -> a | b);
+        }
+        bits.getAndAccumulate(index >>> 6, mask, (a, b) -> a | b);
+    }
+
+    /**
+     * Forgets everything, called when the save is closed.
+     */
+    void clear() {
+        regions.clear();
+    }
+
+    // forgets arbitrary regions other than the one just added until the limit is met
+    private void evict(K added) {
+        Iterator<K> it = regions.keySet().iterator();
+        while (regions.size() > maxRegions && it.hasNext()) {
+            if (!it.next().equals(added)) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -26,15 +26,15 @@ package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.chunk.Chunk;
-import net.minecraft.world.storage.IThreadedFileIO;
 
 import java.io.IOException;
 
 import javax.annotation.Nullable;
 
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 
-public interface ICubeIO extends IThreadedFileIO {
+public interface ICubeIO {
 	void flush() throws IOException;
 
 	@Nullable Chunk loadColumn(int chunkX, int chunkZ) throws IOException;
@@ -43,10 +43,27 @@ public interface ICubeIO extends IThreadedFileIO {
 
 	void loadCubeSyncPart(PartialCubeData info);
 
+    /**
+     * Reads the saved cubes of a column in the given Y range ahead of time, so that the following cube loads in that
+     * range don't have to read them one by one.
+     */
+    void prefetchCubes(int cubeX, int cubeZ, int minCubeY, int maxCubeY) throws IOException;
+
+    /**
+     * Called every tick from the server thread. Drops cached data that hasn't been used for too long.
+     */
+    void tick();
+
 	void saveColumn(Chunk column);
 
 	void saveCube(Cube cube);
 
+    /**
+     * Called when a cube is unloaded, after it has been saved if it needed saving. Allows to keep its data in memory in
+     * case it's loaded again soon.
+     */
+    void markCubeUnloaded(CubePos pos);
+
     boolean cubeExists(int cubeX, int cubeY, int cubeZ);
 
     boolean columnExists(int columnX, int columnZ);
@@ -55,6 +72,22 @@ public interface ICubeIO extends IThreadedFileIO {
 
     int getPendingCubeCount();
 
+    /**
+     * @return approximate compressed size of all queued column and cube saves, in bytes
+     */
+    long getPendingSaveBytes();
+
+    /**
+     * @return time since the oldest queued save has been queued, in milliseconds. 0 if nothing is queued
+     */
+    long getOldestPendingSaveAge();
+
+    /**
+     * @return true if the save queue reached its configured size limit, and nothing that creates new saves should be
+     * done until the writer threads catch up
+     */
+    boolean isSaveQueueFull();
+
     /**
 	 * Stores partially read cube, before sync read but after async read
 	 */
@@ -179,7 +179,7 @@ public class IONbtReader {
         return cube;
     }
 
-    @SuppressWarnings("deprecation") private static void readBlocks(NBTTagCompound nbt, World world, Cube cube) {
+    private static void readBlocks(NBTTagCompound nbt, World world, Cube cube) {
         boolean isEmpty = !nbt.hasKey("Sections");// is this an empty cube?
         if (!isEmpty) {
             NBTTagList sectionList = nbt.getTagList("Sections", 10);
@@ -187,20 +187,10 @@ public class IONbtReader {
 
             ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), cube.getWorld().provider.hasSkyLight());
 
-            byte[] abyte = nbt.getByteArray("Blocks");
-            NibbleArray data = new NibbleArray(nbt.getByteArray("Data"));
-            NibbleArray add = nbt.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add")) : null;
-            NibbleArray add2neid = nbt.hasKey("Add2", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add2")) : null;
-
-            for (int i = 0; i < 4096; i++) {
-                int x = i & 15;
-                int y = i >> 8 & 15;
-                int z = i >> 4 & 15;
-
-                int toAdd = add == null ? 0 : add.getFromIndex(i);
-                toAdd = (toAdd & 0xF) | (add2neid == null ? 0 : add2neid.getFromIndex(i) << 4);
-                int id = (toAdd << 12) | ((abyte[i] & 0xFF) << 4) | data.getFromIndex(i);
-                ebs.getData().set(x, y, z, Block.BLOCK_STATE_IDS.getByValue(id));
+            if (PalettedBlockFormat.isPaletted(nbt)) {
+                PalettedBlockFormat.read(nbt, ebs.getData());
+            } else {
+                readLegacyBlocks(nbt, ebs);
             }
 
             ebs.setBlockLight(new NibbleArray(nbt.getByteArray("BlockLight")));
@@ -214,6 +204,24 @@ public class IONbtReader {
         }
     }
 
+    @SuppressWarnings("deprecation") private static void readLegacyBlocks(NBTTagCompound nbt, ExtendedBlockStorage ebs) {
+        byte[] abyte = nbt.getByteArray("Blocks");
+        NibbleArray data = new NibbleArray(nbt.getByteArray("Data"));
+        NibbleArray add = nbt.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add")) : null;
+        NibbleArray add2neid = nbt.hasKey("Add2", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add2")) : null;
+
+        for (int i = 0; i < 4096; i++) {
+            int x = i & 15;
+            int y = i >> 8 & 15;
+            int z = i >> 4 & 15;
+
+            int toAdd = add == null ? 0 : add.getFromIndex(i);
+            toAdd = (toAdd & 0xF) | (add2neid == null ? 0 : add2neid.getFromIndex(i) << 4);
+            int id = (toAdd << 12) | ((abyte[i] & 0xFF) << 4) | data.getFromIndex(i);
+            ebs.getData().set(x, y, z, Block.BLOCK_STATE_IDS.getByValue(id));
+        }
+    }
+
     private static void readEntities(NBTTagCompound nbt, World world, Cube cube) {// entities
         cube.getEntityContainer().readFromNbt(nbt, "Entities", world, entity -> {
             // make sure this entity is really in the chunk
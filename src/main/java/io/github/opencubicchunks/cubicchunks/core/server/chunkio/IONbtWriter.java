@@ -46,8 +46,8 @@ import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.event.world.ChunkDataEvent;
-import net.minecraftforge.fml.common.FMLCommonHandler;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -70,8 +70,7 @@ class IONbtWriter {
         NBTTagCompound columnNbt = new NBTTagCompound();
         NBTTagCompound level = new NBTTagCompound();
         columnNbt.setTag("Level", level);
-        columnNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
-        FMLCommonHandler.instance().getDataFixer().writeVersionData(columnNbt);
+        CubicDataFixer.writeVersionData(columnNbt);
         writeBaseColumn(column, level);
         writeBiomes(column, level);
         writeOpacityIndex(column, level);
@@ -79,15 +78,20 @@ class IONbtWriter {
         return columnNbt;
     }
 
-    static NBTTagCompound write(final Cube cube) {
+    /**
+     * Writes everything except the blocks and light of the cube. These are added later by
+     * {@link #writeBlocks(BlockStorageSnapshot, NBTTagCompound)}, usually on the IO thread.
+     *
+     * @param cube the cube to write
+     * @return cube NBT without the "Sections" tag
+     */
+    static NBTTagCompound writeWithoutBlocks(final Cube cube) {
         NBTTagCompound cubeNbt = new NBTTagCompound();
         //Added to preserve compatibility with vanilla NBT chunk format.
         NBTTagCompound level = new NBTTagCompound();
         cubeNbt.setTag("Level", level);
-        cubeNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
-        FMLCommonHandler.instance().getDataFixer().writeVersionData(cubeNbt);
+        CubicDataFixer.writeVersionData(cubeNbt);
         writeBaseCube(cube, level);
-        writeBlocks(cube, level);
         writeEntities(cube, level);
         writeTileEntities(cube, level);
         writeScheduledTicks(cube, level);
@@ -97,6 +101,21 @@ class IONbtWriter {
         return cubeNbt;
     }
 
+    /**
+     * Copies the block and light data of the cube so that it can be written outside of the server thread.
+     *
+     * @param cube the cube
+     * @return the snapshot, or null if the cube has no block storage
+     */
+    @Nullable
+    static BlockStorageSnapshot snapshotBlocks(Cube cube) {
+        ExtendedBlockStorage ebs = cube.getStorage();
+        if (ebs == null) {
+            return null; // no data to save anyway
+        }
+        return BlockStorageSnapshot.of(ebs, cube.getWorld().provider.hasSkyLight());
+    }
+
     private static void writeBaseColumn(Chunk column, NBTTagCompound nbt) {// coords
         nbt.setInteger("x", column.x);
         nbt.setInteger("z", column.z);
@@ -153,27 +172,38 @@ class IONbtWriter {
         }
     }
 
-    private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
-        ExtendedBlockStorage ebs = cube.getStorage();
-        if (ebs == null) {
-            return; // no data to save anyway
-        }
+    /**
+     * Adds the "Sections" tag to cube NBT created by {@link #writeWithoutBlocks(Cube)}. Safe to call from any thread.
+     *
+     * @param snapshot block and light data of the cube
+     * @param cubeNbt the cube NBT
+     */
+    static void writeBlocks(BlockStorageSnapshot snapshot, NBTTagCompound cubeNbt) {
         NBTTagList sectionList = new NBTTagList();
         NBTTagCompound section = new NBTTagCompound();
         sectionList.appendTag(section);
-        cubeNbt.setTag("Sections", sectionList);
+        cubeNbt.getCompoundTag("Level").setTag("Sections", sectionList);
+
+        if (!PalettedBlockFormat.write(snapshot, section)) {
+            writeLegacyBlocks(snapshot, section);
+        }
+
+        section.setByteArray("BlockLight", snapshot.getBlockLight());
+
+        byte[] skyLight = snapshot.getSkyLight();
+        if (skyLight != null) {
+            section.setByteArray("SkyLight", skyLight);
+        }
+    }
+
+    private static void writeLegacyBlocks(BlockStorageSnapshot snapshot, NBTTagCompound section) {
         byte[] abyte = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
         NibbleArray data = new NibbleArray();
         NibbleArray add = null;
         NibbleArray add2neid = null;
 
         for (int i = 0; i < 4096; ++i) {
-            int x = i & 15;
-            int y = i >> 8 & 15;
-            int z = i >> 4 & 15;
-
-            @SuppressWarnings("deprecation")
-            int id = Block.BLOCK_STATE_IDS.get(ebs.getData().get(x, y, z));
+            int id = snapshot.getStateId(i);
 
             int in1 = (id >> 12) & 0xF;
             int in2 = (id >> 16) & 0xF;
@@ -204,12 +234,6 @@ class IONbtWriter {
         if (add2neid != null) {
             section.setByteArray("Add2", add2neid.getData());
         }
-
-        section.setByteArray("BlockLight", ebs.getBlockLight().getData());
-
-        if (cube.getWorld().provider.hasSkyLight()) {
-            section.setByteArray("SkyLight", ebs.getSkyLight().getData());
-        }
     }
 
     private static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
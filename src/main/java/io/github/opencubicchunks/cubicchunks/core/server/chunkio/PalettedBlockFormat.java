@@ -0,0 +1,272 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IBlockStateContainer;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.IBlockStatePalette;
+import net.minecraftforge.common.util.Constants;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Palette based cube section format. Each section stores the global block state IDs used in it ("Palette") and one
+ * index into the palette per block ("BlockStates"), packed into "Bits" bits per block. Uniform sections use 0 bits and
+ * have no index data at all, typical terrain needs 1-4 bits per block.
+ * <p>
+ * Sections without the "Format" tag use the legacy vanilla-like Blocks/Data/Add/Add2 layout. Those are still read, and
+ * get converted to this format the next time the cube is saved. Sections that use more than
+ * {@link #MAX_PALETTE_SIZE} different block states are still written in the legacy layout, as it's smaller for them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class PalettedBlockFormat {
+
+    static final int FORMAT_LEGACY = 0;
+    static final int FORMAT_PALETTE = 1;
+
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    private PalettedBlockFormat() {
+        throw new Error();
+    }
+
+    static boolean isPaletted(NBTTagCompound section) {
+        return section.getByte("Format") == FORMAT_PALETTE;
+    }
+
+    /**
+     * Writes the blocks of the snapshot into the section, if they fit into {@link #MAX_PALETTE_SIZE} palette entries.
+     *
+     * @param snapshot the cube block data
+     * @param section section NBT to write to
+     * @return true if the blocks have been written, false if the legacy format has to be used instead
+     */
+    static boolean write(BlockStorageSnapshot snapshot, NBTTagCompound section) {
+        return write(snapshot::getStateId, section);
+    }
+
+    /**
+     * Writes the given blocks into the section, if they fit into {@link #MAX_PALETTE_SIZE} palette entries.
+     *
+     * @param stateIds the global block state ID of each block index, in {@code y << 8 | z << 4 | x} order
+     * @param section section NBT to write to
+     * @return true if the blocks have been written, false if the legacy format has to be used instead
+     */
+    static boolean write(IntUnaryOperator stateIds, NBTTagCompound section) {
+        Int2IntMap idToIndex = new Int2IntOpenHashMap();
+        idToIndex.defaultReturnValue(-1);
+        int[] palette = new int[MAX_PALETTE_SIZE];
+        int[] indices = new int[4096];
+        int size = 0;
+        for (int i = 0; i < 4096; i++) {
+            int id = stateIds.applyAsInt(i);
+            int index = idToIndex.get(id);
+            if (index < 0) {
+                if (size == MAX_PALETTE_SIZE) {
+                    return false;
+                }
+                index = size++;
+                idToIndex.put(id, index);
+                palette[index] = id;
+            }
+            indices[i] = index;
+        }
+
+        int bits = bitsFor(size);
+        section.setByte("Format", (byte) FORMAT_PALETTE);
+        section.setByte("Bits", (byte) bits);
+        section.setIntArray("Palette", size == palette.length ? palette : Arrays.copyOf(palette, size));
+        if (bits != 0) {
+            section.setByteArray("BlockStates", pack(indices, bits));
+        }
+        return true;
+    }
+
+    /**
+     * Reads paletted blocks from the section into the container. The palette is added to the container's palette once,
+     * and the block indices are packed straight into the container's backing array instead of setting every block.
+     *
+     * @param section section NBT written by {@link #write(BlockStorageSnapshot, NBTTagCompound)}
+     * @param container the container to fill, expected to be empty (all air)
+     */
+    @SuppressWarnings("deprecation")
+    static void read(NBTTagCompound section, BlockStateContainer container) {
+        int[] paletteIds = section.getIntArray("Palette");
+        IBlockState air = Blocks.AIR.getDefaultState();
+        IBlockState[] palette = new IBlockState[paletteIds.length];
+        boolean hasAir = false;
+        for (int i = 0; i < paletteIds.length; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(paletteIds[i]);
+            if (state == null) {
+                CubicChunks.LOGGER.warn("Unknown block state ID {} in cube palette, replacing with air", paletteIds[i]);
+                state = air;
+            }
+            hasAir |= state == air;
+            palette[i] = state;
+        }
+        int bits = section.getByte("Bits");
+        byte[] data = null;
+        if (bits != 0) {
+            if (!section.hasKey("BlockStates", Constants.NBT.TAG_BYTE_ARRAY)) {
+                throw new IllegalArgumentException("Cube section with " + bits + " bits per block has no block data");
+            }
+            data = section.getByteArray("BlockStates");
+        } else if (palette.length == 0 || palette[0] == air) {
+            return; // the container is already all air
+        }
+
+        int containerBits = containerBitsFor(palette.length, hasAir);
+        if (containerBits < 0) {
+            readPerBlock(data, bits, palette, air, container::set);
+            return;
+        }
+        IBlockStateContainer access = (IBlockStateContainer) container;
+        if (access.getBits() != containerBits) {
+            access.invokeSetBits(containerBits);
+        }
+        IBlockStatePalette containerPalette = access.getPalette();
+        long[] containerIds = new long[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            containerIds[i] = containerPalette.idFor(palette[i]);
+        }
+        fillStorage(data, bits, containerIds, containerBits, access.getStorage().getBackingLongArray());
+    }
+
+    /**
+     * The container palette always has air at index 0, so a section palette without air needs one more entry. A full
+     * palette of {@link #MAX_PALETTE_SIZE} entries without air doesn't fit into 8 bits.
+     *
+     * @param paletteSize number of entries in the section palette
+     * @param hasAir whether air is one of them
+     * @return bits per block of a container that fits the palette, 4 or 8 as they don't split entries between two
+     * longs. -1 if the palette needs more than 8 bits and the blocks have to be set one by one.
+     */
+    static int containerBitsFor(int paletteSize, boolean hasAir) {
+        int containerPaletteSize = paletteSize + (hasAir ? 0 : 1);
+        if (containerPaletteSize > 256) {
+            return -1;
+        }
+        return containerPaletteSize <= 16 ? 4 : 8;
+    }
+
+    /**
+     * Packs the blocks of a section into the backing array of a container.
+     *
+     * @param data packed palette indices of the section, null if the section uses 0 bits
+     * @param bits bits per block of the section
+     * @param containerIds the container palette ID of each section palette entry
+     * @param containerBits bits per block of the container, 4 or 8
+     * @param storage the backing array of the container, expected to be all 0 (air)
+     */
+    static void fillStorage(@Nullable byte[] data, int bits, long[] containerIds, int containerBits, long[] storage) {
+        int perLong = 64 / containerBits;
+        if (data == null) {
+            long value = 0;
+            for (int i = 0; i < perLong; i++) {
+                value |= containerIds[0] << i * containerBits;
+            }
+            Arrays.fill(storage, value);
+            return;
+        }
+        int perByte = 8 / bits;
+        int mask = (1 << bits) - 1;
+        // block index i is y << 8 | z << 4 | x in both formats
+        for (int i = 0; i < 4096; i++) {
+            int index = (data[i / perByte] & 0xFF) >>> ((i % perByte) * bits) & mask;
+            if (index < containerIds.length) {
+                storage[i / perLong] |= containerIds[index] << (i % perLong) * containerBits;
+            }
+        }
+    }
+
+    /**
+     * Sets every block of the section that isn't air, for palettes that don't fit into a local container palette.
+     *
+     * @param data packed palette indices of the section, null if the section uses 0 bits
+     * @param bits bits per block of the section
+     * @param palette the block states of the section palette
+     * @param air the air block state, which isn't set
+     * @param container receives the blocks
+     */
+    static <T> void readPerBlock(@Nullable byte[] data, int bits, T[] palette, T air, BlockSetter<T> container) {
+        int perByte = data == null ? 1 : 8 / bits;
+        int mask = (1 << bits) - 1;
+        for (int i = 0; i < 4096; i++) {
+            int index = data == null ? 0 : (data[i / perByte] & 0xFF) >>> ((i % perByte) * bits) & mask;
+            T state = index < palette.length ? palette[index] : air;
+            if (state != air) {
+                container.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface BlockSetter<T> {
+
+        void set(int localX, int localY, int localZ, T state);
+    }
+
+    /**
+     * @return the smallest bit count out of 0, 1, 2, 4 and 8 that can address a palette of the given size. Only sizes
+     * that divide 8 are used so that no entry is split between two bytes.
+     */
+    private static int bitsFor(int paletteSize) {
+        if (paletteSize <= 1) {
+            return 0;
+        }
+        if (paletteSize <= 2) {
+            return 1;
+        }
+        if (paletteSize <= 4) {
+            return 2;
+        }
+        if (paletteSize <= 16) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static byte[] pack(int[] indices, int bits) {
+        int perByte = 8 / bits;
+        byte[] data = new byte[indices.length / perByte];
+        for (int i = 0; i < indices.length; i++) {
+            data[i / perByte] |= indices[i] << ((i % perByte) * bits);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Least recently used cache of compressed cube data, limited by total size.
+ * <p>
+ * Filled with the data of every cube read from or written to disk, and the entry of a cube is moved to the front when
+ * the cube is unloaded. This way cubes unloaded at the edge of a player's view distance can be loaded again without
+ * reading the region file, as long as they weren't modified since (modified cubes are saved, which replaces the entry).
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class RecentCubeCache {
+
+    // rough per entry overhead of the map entry, key and array header
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<CubePos, byte[]> cubes = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+
+    RecentCubeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Nullable synchronized byte[] get(CubePos pos) {
+        return cubes.get(pos);
+    }
+
+    /**
+     * Stores data that has just been written to disk, replacing what was cached before.
+     */
+    synchronized void put(CubePos pos, byte[] data) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        byte[] old = cubes.put(pos, data);
+        if (old != null) {
+            bytes -= old.length + ENTRY_OVERHEAD;
+        }
+        bytes += data.length + ENTRY_OVERHEAD;
+        evict();
+    }
+
+    /**
+     * Stores data that has been read from disk. Doesn't replace anything, as data written to disk at the same time as it
+     * was being read is newer.
+     */
+    synchronized void putIfAbsent(CubePos pos, byte[] data) {
+        if (!cubes.containsKey(pos)) {
+            put(pos, data);
+        }
+    }
+
+    /**
+     * Moves the cube to the front of the cache, called when the cube is unloaded.
+     */
+    synchronized void touch(CubePos pos) {
+        cubes.get(pos);
+    }
+
+    synchronized void invalidate(CubePos pos) {
+        byte[] old = cubes.remove(pos);
+        if (old != null) {
+            bytes -= old.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    synchronized void clear() {
+        cubes.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<CubePos, byte[]>> it = cubes.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().length + ENTRY_OVERHEAD;
+            it.remove();
+        }
+    }
+}
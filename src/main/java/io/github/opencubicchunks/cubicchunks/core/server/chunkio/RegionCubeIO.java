@@ -30,17 +30,15 @@ import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
-import net.minecraft.world.storage.ThreadedFileIOBase;
-import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.apache.logging.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
@@ -48,10 +46,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -61,12 +62,38 @@ public class RegionCubeIO implements ICubeIO {
     private static final long kB = 1024;
     private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
+    // a write that failed is retried this many times before the entry is dropped from the save queue
+    private static final int MAX_WRITE_ATTEMPTS = 3;
 
     @Nonnull private World world;
     private SaveCubeColumns save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
 
+    // compressed size of all queued entries. Entries that haven't been compressed yet are counted with the average size
+    private final AtomicLong pendingBytes = new AtomicLong();
+    // updated by all writer threads
+    private final AtomicLong averageColumnBytes = new AtomicLong(1024);
+    private final AtomicLong averageCubeBytes = new AtomicLong(4 * kB);
+    // first queue times of all queued positions in queue order, positions that have been written are removed lazily
+    @Nonnull private final ConcurrentLinkedQueue<QueuedSince> saveOrder = new ConcurrentLinkedQueue<>();
+
+    // cubes read ahead by prefetchCubes, waiting to be taken by loadCubeAsyncPart
+    private static final long PREFETCH_EXPIRE_TIME = TimeUnit.SECONDS.toNanos(10);
+    private static final long MAX_PREFETCHED_BYTES = 16 * MB;
+    @Nonnull private final ConcurrentMap<CubePos, PrefetchedCube> prefetchedCubes = new ConcurrentHashMap<>();
+    // compressed size of all prefetched cubes
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    private volatile long lastPrefetchExpireCheck = System.nanoTime();
+
+    // which cubes and columns exist in the save, keyed by 16x16x16 cube and 32x32 column regions
+    // about 1 kB per cube region, a lot more than the region files that are usually open at the same time
+    private static final int MAX_PRESENCE_REGIONS = 1024;
+    @Nonnull private final EntryPresenceIndex<CubePos> cubePresence = new EntryPresenceIndex<>(16 * 16 * 16, MAX_PRESENCE_REGIONS);
+    @Nonnull private final EntryPresenceIndex<ChunkPos> columnPresence = new EntryPresenceIndex<>(32 * 32, MAX_PRESENCE_REGIONS);
+
+    @Nonnull private final RecentCubeCache recentCubes = new RecentCubeCache(CubicChunksConfig.recentCubeCacheMegabytes * MB);
+
     public RegionCubeIO(World world) throws IOException {
         this.world = world;
 
@@ -104,7 +131,10 @@ public class RegionCubeIO implements ICubeIO {
     @Override
     public void flush() throws IOException {
         try {
-            ThreadedFileIOBase.getThreadedIOInstance().waitForFinish();
+            // failed writes are submitted again after the barrier, so wait until every entry is written or dropped
+            do {
+                RegionWriterPool.get().waitForFinish();
+            } while (!columnsToSave.isEmpty() || !cubesToSave.isEmpty());
         } catch (InterruptedException iex) {
             iex.printStackTrace();
         }
@@ -116,6 +146,8 @@ public class RegionCubeIO implements ICubeIO {
         } catch (Exception ex) {
             CubicChunks.LOGGER.catching(ex);
         }
+        // only flushed when the world is unloaded, don't keep its cube data around
+        recentCubes.clear();
     }
 
     private synchronized void closeSave() throws IOException {
@@ -125,6 +157,8 @@ public class RegionCubeIO implements ICubeIO {
             }
         } finally {
             this.save = null;
+            cubePresence.clear();
+            columnPresence.clear();
         }
     }
 
@@ -135,14 +169,14 @@ public class RegionCubeIO implements ICubeIO {
         NBTTagCompound nbt;
         SaveEntry<EntryLocation2D> saveEntry;
         if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null) {
-            nbt = saveEntry.nbt;
+            nbt = saveEntry.getNbt();
         } else {
             // IOException makes using Optional impossible :(
             Optional<ByteBuffer> buf = save.load(new EntryLocation2D(chunkX, chunkZ), true);
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            nbt = CubicDataFixer.process(CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
         }
         return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
     }
@@ -151,15 +185,22 @@ public class RegionCubeIO implements ICubeIO {
         SaveCubeColumns save = this.getSave();
         NBTTagCompound nbt;
         SaveEntry<EntryLocation3D> saveEntry;
-        if ((saveEntry = this.cubesToSave.get(new CubePos(column.x, cubeY, column.z))) != null) {
-            nbt = saveEntry.nbt;
+        PrefetchedCube prefetched;
+        CubePos pos = new CubePos(column.x, cubeY, column.z);
+        if ((saveEntry = this.cubesToSave.get(pos)) != null) {
+            nbt = saveEntry.getNbt();
+        } else if ((prefetched = removePrefetched(pos)) != null && prefetched.isDone()) {
+            if (prefetched.data == null) {
+                return null; // not on disk
+            }
+            nbt = CubicDataFixer.process(CompressedStreamTools.readCompressed(new ByteArrayInputStream(prefetched.data)));
         } else {
             // does the database have the cube?
-            Optional<ByteBuffer> buf = save.load(new EntryLocation3D(column.x, cubeY, column.z), true);
-            if (!buf.isPresent()) {
+            byte[] data = readCubeBytes(save, pos);
+            if (data == null) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            nbt = CubicDataFixer.process(CompressedStreamTools.readCompressed(new ByteArrayInputStream(data)));
         }
 
         // restore the cube - async part
@@ -170,6 +211,79 @@ public class RegionCubeIO implements ICubeIO {
         return new ICubeIO.PartialCubeData(cube, nbt);
     }
 
+    /**
+     * Reads all saved cubes of a column in the given Y range in one go, in the order they are stored in the region
+     * files, and keeps their compressed data in memory for a few seconds for {@link #loadCubeAsyncPart(Chunk, int)}.
+     */
+    @Override public void prefetchCubes(int cubeX, int cubeZ, int minCubeY, int maxCubeY) throws IOException {
+        SaveCubeColumns save = this.getSave();
+        // ascending Y is ascending region and then ascending index within the region for a single column
+        for (int cubeY = minCubeY; cubeY <= maxCubeY && prefetchedBytes.get() < MAX_PREFETCHED_BYTES; cubeY++) {
+            CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+            if (cubesToSave.containsKey(pos)) {
+                continue;
+            }
+            // saveCube removes the placeholder, so data read from disk while the cube is being saved is never used
+            PrefetchedCube placeholder = new PrefetchedCube(null, false);
+            if (prefetchedCubes.putIfAbsent(pos, placeholder) != null) {
+                continue;
+            }
+            PrefetchedCube prefetched = new PrefetchedCube(readCubeBytes(save, pos), true);
+            // count the bytes first, so that removing the entry right after it's added never makes the count negative
+            prefetchedBytes.addAndGet(prefetched.weight());
+            if (!prefetchedCubes.replace(pos, placeholder, prefetched)) {
+                prefetchedBytes.addAndGet(-prefetched.weight());
+            }
+        }
+    }
+
+    @Nullable
+    private PrefetchedCube removePrefetched(CubePos pos) {
+        PrefetchedCube prefetched = prefetchedCubes.remove(pos);
+        if (prefetched != null) {
+            prefetchedBytes.addAndGet(-prefetched.weight());
+        }
+        return prefetched;
+    }
+
+    /**
+     * Reads compressed cube data from the recent cube cache, or from disk if it's not cached.
+     *
+     * @return the data, or null if the cube isn't saved
+     */
+    @Nullable
+    private byte[] readCubeBytes(SaveCubeColumns save, CubePos pos) throws IOException {
+        byte[] data = recentCubes.get(pos);
+        if (data != null) {
+            return data;
+        }
+        Optional<ByteBuffer> buf = save.load(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), true);
+        if (!buf.isPresent()) {
+            return null;
+        }
+        data = buf.get().array();
+        recentCubes.putIfAbsent(pos, data);
+        return data;
+    }
+
+    private void expirePrefetchedCubes() {
+        long now = System.nanoTime();
+        if (now - lastPrefetchExpireCheck < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        lastPrefetchExpireCheck = now;
+        for (Map.Entry<CubePos, PrefetchedCube> entry : prefetchedCubes.entrySet()) {
+            PrefetchedCube prefetched = entry.getValue();
+            if (now - prefetched.time > PREFETCH_EXPIRE_TIME && prefetchedCubes.remove(entry.getKey(), prefetched)) {
+                prefetchedBytes.addAndGet(-prefetched.weight());
+            }
+        }
+    }
+
+    @Override public void tick() {
+        expirePrefetchedCubes();
+    }
+
     @Override public void loadCubeSyncPart(ICubeIO.PartialCubeData info) {
         IONbtReader.readCubeSyncPart(info.cube, world, info.nbt);
     }
@@ -181,27 +295,66 @@ public class RegionCubeIO implements ICubeIO {
         // with concurrent access to world data structures
 
         // add the column to the save queue
-        this.columnsToSave
-                .put(column.getPos(), new SaveEntry<>(new EntryLocation2D(column.x, column.z), IONbtWriter.write(column)));
+        ChunkPos pos = column.getPos();
+        EntryLocation2D location = new EntryLocation2D(column.x, column.z);
+        enqueue(this.columnsToSave, pos, new SaveEntry<>(location, IONbtWriter.write(column), null, averageColumnBytes.get()));
         column.setModified(false);
+        expirePrefetchedCubes();
+        columnPresence.set(new ChunkPos(column.x >> 5, column.z >> 5), columnRegionIndex(column.x, column.z), true);
 
-        // signal the IO thread to process the save queue
-        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+        // schedule the write on the writer thread for this region
+        RegionWriterPool.get().submit(location, () -> writeColumn(pos));
     }
 
     @Override public void saveCube(Cube cube) {
         // NOTE: this function blocks the world thread, so make it fast
+        // entities and tile entities have to be written here, but blocks and light are only copied
+        // and encoded on the IO thread
 
-        this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube)));
+        CubePos pos = cube.getCoords();
+        EntryLocation3D location = new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ());
+        enqueue(this.cubesToSave, pos,
+                new SaveEntry<>(location, IONbtWriter.writeWithoutBlocks(cube), IONbtWriter.snapshotBlocks(cube), averageCubeBytes.get()));
         cube.markSaved();
+        removePrefetched(pos);
+        recentCubes.invalidate(pos);
+        cubePresence.set(new CubePos(cube.getX() >> 4, cube.getY() >> 4, cube.getZ() >> 4),
+                cubeRegionIndex(cube.getX(), cube.getY(), cube.getZ()), true);
+
+        // schedule the write on the writer thread for this region
+        RegionWriterPool.get().submit(location, () -> writeCube(pos));
+    }
+
+    private <K, T extends IKey<?>> void enqueue(ConcurrentMap<K, SaveEntry<T>> queue, K pos, SaveEntry<T> entry) {
+        pendingBytes.addAndGet(entry.weight);
+        queue.compute(pos, (p, old) -> {
+            if (old != null) {
+                // the data waiting in the queue is as old as the oldest unsaved change
+                entry.queuedSince = old.queuedSince;
+                old.dequeue(pendingBytes);
+            } else {
+                entry.queuedSince = new QueuedSince();
+                saveOrder.add(entry.queuedSince);
+            }
+            return entry;
+        });
+    }
 
-        // signal the IO thread to process the save queue
-        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+    @Override public void markCubeUnloaded(CubePos pos) {
+        recentCubes.touch(pos);
     }
 
     @Override public boolean cubeExists(int cubeX, int cubeY, int cubeZ) {
+        CubePos region = new CubePos(cubeX >> 4, cubeY >> 4, cubeZ >> 4);
+        int index = cubeRegionIndex(cubeX, cubeY, cubeZ);
+        Boolean known = cubePresence.isPresent(region, index);
+        if (known != null) {
+            return known;
+        }
         try {
-            return this.getSave().getSaveSection3D().hasEntry(new EntryLocation3D(cubeX, cubeY, cubeZ));
+            boolean exists = this.getSave().getSaveSection3D().hasEntry(new EntryLocation3D(cubeX, cubeY, cubeZ));
+            cubePresence.set(region, index, exists);
+            return exists;
         } catch (IOException e) {
             CubicChunks.LOGGER.catching(e);
             return false;
@@ -209,14 +362,30 @@ public class RegionCubeIO implements ICubeIO {
     }
 
     @Override public boolean columnExists(int columnX, int columnZ) {
+        ChunkPos region = new ChunkPos(columnX >> 5, columnZ >> 5);
+        int index = columnRegionIndex(columnX, columnZ);
+        Boolean known = columnPresence.isPresent(region, index);
+        if (known != null) {
+            return known;
+        }
         try {
-            return this.getSave().getSaveSection2D().hasEntry(new EntryLocation2D(columnX, columnZ));
+            boolean exists = this.getSave().getSaveSection2D().hasEntry(new EntryLocation2D(columnX, columnZ));
+            columnPresence.set(region, index, exists);
+            return exists;
         } catch (IOException e) {
             CubicChunks.LOGGER.catching(e);
             return false;
         }
     }
 
+    private static int cubeRegionIndex(int cubeX, int cubeY, int cubeZ) {
+        return (cubeX & 15) << 8 | (cubeY & 15) << 4 | (cubeZ & 15);
+    }
+
+    private static int columnRegionIndex(int columnX, int columnZ) {
+        return (columnX & 31) << 5 | (columnZ & 31);
+    }
+
     @Override public int getPendingColumnCount() {
         return columnsToSave.size();
     }
@@ -225,73 +394,168 @@ public class RegionCubeIO implements ICubeIO {
         return cubesToSave.size();
     }
 
-    @Override
-    public boolean writeNextIO() {
-        try {
+    @Override public long getPendingSaveBytes() {
+        return Math.max(0, pendingBytes.get());
+    }
+
+    @Override public long getOldestPendingSaveAge() {
+        QueuedSince oldest;
+        while ((oldest = saveOrder.peek()) != null && oldest.written) {
+            saveOrder.remove(oldest);
+        }
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.time);
+    }
+
+    @Override public boolean isSaveQueueFull() {
+        return columnsToSave.size() + cubesToSave.size() >= CubicChunksConfig.saveQueueMaxEntries
+                || pendingBytes.get() >= CubicChunksConfig.saveQueueMaxMegabytes * MB;
+    }
 
-            SaveCubeColumns save = this.getSave();
-            // NOTE: return true to redo this call (used for batching)
-
-            final int ColumnsBatchSize = 25;
-            final int CubesBatchSize = 250;
-
-            int numColumnsSaved = 0;
-            int numCubesSaved = 0;
-
-            // save a batch of columns
-            Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
-            for (SaveEntry<EntryLocation2D> entry; colIt.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-                entry = colIt.next();
-                try {
-                    // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    save.save2d(entry.pos, ByteBuffer.wrap(data));
-                    //column can be removed from toSave queue only after writing to disk
-                    //to avoid race conditions
-                    colIt.remove();
-                } catch (Throwable t) {
-                    LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
-                }
+    private void writeColumn(ChunkPos pos) {
+        SaveEntry<EntryLocation2D> entry = columnsToSave.get(pos);
+        if (entry == null) {
+            return; // already written by an earlier write task for the same column
+        }
+        try {
+            byte[] data = IONbtWriter.writeNbtBytes(entry.getNbt());
+            entry.resize(data.length, pendingBytes);
+            averageColumnBytes.accumulateAndGet(data.length, (average, bytes) -> average + (bytes - average) / 16);
+            this.getSave().save2d(entry.pos, ByteBuffer.wrap(data));
+            //column can be removed from toSave queue only after writing to disk
+            //to avoid race conditions. If it has been saved again in the meantime, the newer entry stays.
+            if (columnsToSave.remove(pos, entry)) {
+                entry.dequeue(pendingBytes);
+                entry.queuedSince.written = true;
             }
+        } catch (Throwable t) {
+            String name = String.format("column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ());
+            onWriteFailed(columnsToSave, pos, entry, name, t, () -> writeColumn(pos));
+        }
+    }
 
-            boolean hasMoreColumns = colIt.hasNext();
-
-            Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
-            // save a batch of cubes
-
-            for (SaveEntry<EntryLocation3D> entry; cubeIt.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-                entry = cubeIt.next();
-                try {
-                    // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    try {
-                        save.save3d(entry.pos, ByteBuffer.wrap(data));
-                    } finally {
-                        //cube can be removed from toSave queue only after writing to disk
-                        //to avoid race conditions
-                        cubeIt.remove();
-                    }
-                } catch (Throwable t) {
-                    LOGGER.error(
-                            String.format("Unable to write cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), t);
-                }
+    private void writeCube(CubePos pos) {
+        SaveEntry<EntryLocation3D> entry = cubesToSave.get(pos);
+        if (entry == null) {
+            return; // already written by an earlier write task for the same cube
+        }
+        try {
+            byte[] data = IONbtWriter.writeNbtBytes(entry.getNbt());
+            entry.resize(data.length, pendingBytes);
+            averageCubeBytes.accumulateAndGet(data.length, (average, bytes) -> average + (bytes - average) / 16);
+            this.getSave().save3d(entry.pos, ByteBuffer.wrap(data));
+            recentCubes.put(pos, data);
+            //cube can be removed from toSave queue only after writing to disk
+            //to avoid race conditions. If it has been saved again in the meantime, the newer entry stays.
+            if (cubesToSave.remove(pos, entry)) {
+                entry.dequeue(pendingBytes);
+                entry.queuedSince.written = true;
             }
-            boolean hasMoreCubes = cubeIt.hasNext();
-            return hasMoreColumns || hasMoreCubes;
         } catch (Throwable t) {
-            LOGGER.error("Exception occurred when saving cubes", t);
-            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+            String name = String.format("cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ());
+            onWriteFailed(cubesToSave, pos, entry, name, t, () -> writeCube(pos));
+        }
+    }
+
+    /**
+     * Schedules the write of an entry again after it failed. After {@link #MAX_WRITE_ATTEMPTS} failed writes the entry
+     * is dropped from the save queue, so that it doesn't count towards the queue limits forever.
+     */
+    private <K, T extends IKey<?>> void onWriteFailed(ConcurrentMap<K, SaveEntry<T>> queue, K pos, SaveEntry<T> entry,
+            String name, Throwable t, Runnable write) {
+        if (++entry.failedWrites < MAX_WRITE_ATTEMPTS) {
+            LOGGER.warn("Unable to write " + name + ", retrying", t);
+            RegionWriterPool.get().submit(entry.pos, write);
+            return;
+        }
+        LOGGER.error("Unable to write " + name + " after " + MAX_WRITE_ATTEMPTS + " attempts, the changes are lost", t);
+        if (queue.remove(pos, entry)) {
+            entry.dequeue(pendingBytes);
+            entry.queuedSince.written = true;
         }
     }
 
+    private static class PrefetchedCube {
+
+        // compressed cube data, null if the cube doesn't exist on disk
+        @Nullable private final byte[] data;
+        private final boolean done;
+        private final long time = System.nanoTime();
+
+        PrefetchedCube(@Nullable byte[] data, boolean done) {
+            this.data = data;
+            this.done = done;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        long weight() {
+            return data == null ? 0 : data.length;
+        }
+    }
+
+    /**
+     * The time a position was first queued for saving. Shared by all entries of the position that replace each other
+     * until one of them is written.
+     */
+    private static class QueuedSince {
+
+        private final long time = System.nanoTime();
+        private volatile boolean written;
+    }
+
     private static class SaveEntry<T extends IKey<?>> {
 
         private final T pos;
         private final NBTTagCompound nbt;
-
-        SaveEntry(T pos, NBTTagCompound nbt) {
+        @Nullable private BlockStorageSnapshot blocks;
+        // set when the entry is queued
+        private QueuedSince queuedSince;
+        // bytes this entry adds to the pending save size, 0 once it's no longer queued
+        private long weight;
+        private boolean dequeued;
+        // only accessed by the writer thread of the entry's region
+        private int failedWrites;
+
+        SaveEntry(T pos, NBTTagCompound nbt, @Nullable BlockStorageSnapshot blocks, long estimatedBytes) {
             this.pos = pos;
             this.nbt = nbt;
+            this.blocks = blocks;
+            this.weight = estimatedBytes;
+        }
+
+        /**
+         * Replaces the estimated size of this entry with the real compressed size.
+         */
+        synchronized void resize(long bytes, AtomicLong pendingBytes) {
+            if (!dequeued) {
+                pendingBytes.addAndGet(bytes - weight);
+                weight = bytes;
+            }
+        }
+
+        /**
+         * Removes this entry from the pending save size, after it has been written or replaced by a newer one.
+         */
+        synchronized void dequeue(AtomicLong pendingBytes) {
+            if (!dequeued) {
+                dequeued = true;
+                pendingBytes.addAndGet(-weight);
+                weight = 0;
+            }
+        }
+
+        /**
+         * Returns the full NBT of this entry, first writing the block snapshot into it if that hasn't been done yet.
+         * Both the save thread and the cube loading threads can get here first.
+         */
+        synchronized NBTTagCompound getNbt() {
+            if (blocks != null) {
+                IONbtWriter.writeBlocks(blocks, nbt);
+                blocks = null;
+            }
+            return nbt;
         }
     }
 
@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writer threads for cube and column saves, shared by all worlds.
+ * <p>
+ * Each writer thread owns a stripe of region files, selected by the hash of the region key. Writes to different regions
+ * can run in parallel, while all writes to one region file run on the same thread in the order they were submitted, so
+ * regionlib never sees concurrent writes to the same region.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class RegionWriterPool {
+
+    @Nullable private static RegionWriterPool instance;
+
+    private final ExecutorService[] stripes;
+
+    private RegionWriterPool(int threads) {
+        this.stripes = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            String name = "Cube Writer Thread #" + (i + 1);
+            stripes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+    }
+
+    static synchronized RegionWriterPool get() {
+        if (instance == null) {
+            instance = new RegionWriterPool(Math.max(1, CubicChunksConfig.ioWriterThreads));
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules a write to the region file containing the given entry.
+     *
+     * @param entry location of the written entry, used to select the writer thread
+     * @param task the write
+     */
+    void submit(IKey<?> entry, Runnable task) {
+        int hash = entry.getRegionKey().getName().hashCode();
+        stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)].execute(task);
+    }
+
+    /**
+     * Blocks until all writes submitted before this call are done.
+     */
+    void waitForFinish() throws InterruptedException {
+        Future<?>[] barriers = new Future<?>[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            // each stripe runs tasks in order, so the barrier completes after everything queued before it
+            barriers[i] = stripes[i].submit(() -> { });
+        }
+        for (Future<?> barrier : barriers) {
+            try {
+                barrier.get();
+            } catch (ExecutionException e) {
+                CubicChunks.LOGGER.catching(e);
+            }
+        }
+    }
+}
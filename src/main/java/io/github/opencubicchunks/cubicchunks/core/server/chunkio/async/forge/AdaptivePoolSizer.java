@@ -0,0 +1,177 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Resizes an IO thread pool based on how long tasks wait in its queue and how busy its threads are.
+ * <p>
+ * Samples are collected by the IO threads and evaluated once per window on the server thread. The pool grows by one
+ * thread after {@link #GROW_WINDOWS} consecutive windows where tasks waited longer than
+ * {@link CubicChunksConfig#ioTargetWaitMillis} while the threads were busy, and shrinks by one thread after
+ * {@link #SHRINK_WINDOWS} consecutive windows where one thread less would have been enough. The larger shrink delay
+ * keeps the pool from oscillating when the load is bursty, like a player flying through new terrain.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class AdaptivePoolSizer {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int GROW_WINDOWS = 3;
+    private static final int SHRINK_WINDOWS = 15;
+    // fraction of the time all threads have to be busy for the pool to grow. Below that, tasks waiting long are
+    // more likely blocked on something else than the disk (cube loads waiting for their column)
+    private static final double GROW_UTILIZATION = 0.75;
+    // the pool shrinks only if the remaining threads would be at most this busy
+    private static final double SHRINK_UTILIZATION = 0.5;
+
+    private enum Decision {
+        NONE, GROW, SHRINK, CLAMP
+    }
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final IntSupplier queueDepth;
+
+    // written by the IO threads
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+
+    // only accessed from the server thread
+    private long windowStart = System.nanoTime();
+    private int growStreak;
+    private int shrinkStreak;
+
+    // statistics of the last window, for toString
+    private volatile int lastQueueDepth;
+    private volatile long lastCompleted;
+    private volatile double lastWaitMillis;
+    private volatile double lastServiceMillis;
+    private volatile double lastUtilization;
+    private volatile Decision lastDecision = Decision.NONE;
+
+    AdaptivePoolSizer(String name, ThreadPoolExecutor executor, IntSupplier queueDepth) {
+        this.name = name;
+        this.executor = executor;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Record a finished task. Called from the thread that ran the task.
+     *
+     * @param wait time in nanoseconds the task spent in the queue
+     * @param service time in nanoseconds the task spent doing work
+     */
+    void record(long wait, long service) {
+        completed.increment();
+        waitNanos.add(wait);
+        serviceNanos.add(service);
+    }
+
+    /**
+     * Evaluate the samples collected since the last window and resize the pool if needed. Should be called on the
+     * server thread, does nothing until the current window is over.
+     */
+    void update() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) {
+            return;
+        }
+        windowStart = now;
+
+        long count = completed.sumThenReset();
+        long wait = waitNanos.sumThenReset();
+        long service = serviceNanos.sumThenReset();
+        int queued = queueDepth.getAsInt();
+        int threads = executor.getCorePoolSize();
+
+        double waitMillis = count == 0 ? 0 : wait / (double) count / 1e6;
+        double serviceMillis = count == 0 ? 0 : service / (double) count / 1e6;
+        double utilization = service / ((double) elapsed * threads);
+
+        int min = Math.max(1, CubicChunksConfig.ioMinThreads);
+        int max = Math.max(min, CubicChunksConfig.ioMaxThreads);
+        double targetMillis = CubicChunksConfig.ioTargetWaitMillis;
+
+        // tasks that waited long but haven't finished yet don't show up in the samples, so a queue that is deeper
+        // than what the pool completes in the target wait time also counts as overloaded
+        boolean overloaded = (waitMillis > targetMillis && queued > 0)
+                || (queued > threads && count * targetMillis < queued * (elapsed / 1e6));
+        boolean underused = waitMillis < targetMillis / 4 && utilization * threads <= (threads - 1) * SHRINK_UTILIZATION;
+
+        growStreak = overloaded && utilization >= GROW_UTILIZATION ? growStreak + 1 : 0;
+        shrinkStreak = underused && queued == 0 ? shrinkStreak + 1 : 0;
+
+        Decision decision = Decision.NONE;
+        int newThreads = threads;
+        if (threads < min || threads > max) {
+            newThreads = Math.min(max, Math.max(min, threads));
+            decision = Decision.CLAMP;
+        } else if (growStreak >= GROW_WINDOWS && threads < max) {
+            newThreads = threads + 1;
+            decision = Decision.GROW;
+        } else if (shrinkStreak >= SHRINK_WINDOWS && threads > min) {
+            newThreads = threads - 1;
+            decision = Decision.SHRINK;
+        }
+        if (newThreads != threads) {
+            growStreak = 0;
+            shrinkStreak = 0;
+            // the queue is unbounded, so the executor never starts more than the core pool size. Threads above the new
+            // size terminate once they are idle for the keep alive time
+            executor.setCorePoolSize(newThreads);
+            CubicChunks.LOGGER.debug("{}: {} threads -> {} (queued {}, wait {} ms, service {} ms, utilization {})",
+                    name, threads, newThreads, queued, String.format("%.1f", waitMillis), String.format("%.1f", serviceMillis),
+                    String.format("%.2f", utilization));
+        }
+
+        lastQueueDepth = queued;
+        lastCompleted = count;
+        lastWaitMillis = waitMillis;
+        lastServiceMillis = serviceMillis;
+        lastUtilization = utilization;
+        if (decision != Decision.NONE) {
+            lastDecision = decision;
+        }
+    }
+
+    @Override public String toString() {
+        return String.format("%s: %d threads, %d queued, %d/s, wait %.1f ms, service %.1f ms, utilization %.0f%%, last %s",
+                name, executor.getCorePoolSize(), lastQueueDepth, lastCompleted, lastWaitMillis, lastServiceMillis, lastUtilization * 100,
+                lastDecision.name().toLowerCase());
+    }
+}
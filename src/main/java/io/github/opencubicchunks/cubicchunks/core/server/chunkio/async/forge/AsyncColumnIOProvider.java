@@ -42,11 +42,17 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Chunk> {
     @Nullable private Chunk column; // The target
     @Nonnull private final QueuedColumn colInfo;
     private ICubeGenerator generator;
+    @Nonnull private final AsyncWorldIOExecutor executor;
+    // cube Y range to read ahead once the column is loaded, empty if minPrefetchY > maxPrefetchY
+    // not guarded by this, so that adding a range doesn't block the server thread while the column is loading
+    private final Object prefetchLock = new Object();
+    private int minPrefetchY = Integer.MAX_VALUE, maxPrefetchY = Integer.MIN_VALUE;
 
-    AsyncColumnIOProvider(QueuedColumn colInfo, ICubeIO loader, ICubeGenerator generator) {
+    AsyncColumnIOProvider(QueuedColumn colInfo, ICubeIO loader, ICubeGenerator generator, AsyncWorldIOExecutor executor) {
         this.loader = loader;
         this.colInfo = colInfo;
         this.generator = generator;
+        this.executor = executor;
     }
 
     @Override void runSynchronousPart() {
@@ -60,20 +66,58 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Chunk> {
         runCallbacks();
     }
 
+    QueuedColumn getColumnInfo() {
+        return colInfo;
+    }
+
     @Nullable @Override Chunk get() {
         return column;
     }
 
+    /**
+     * Extends the range of cubes that will be read ahead after the column is loaded. Has no effect if the column has
+     * already been loaded.
+     */
+    void addPrefetchRange(int minCubeY, int maxCubeY) {
+        synchronized (prefetchLock) {
+            minPrefetchY = Math.min(minPrefetchY, minCubeY);
+            maxPrefetchY = Math.max(maxPrefetchY, maxCubeY);
+        }
+    }
+
     @Override public void run() {
         synchronized (this) {
+            if (cancelled) {
+                // nobody wants this column anymore, don't touch the disk
+                this.finished = true;
+                this.notifyAll();
+                executor.onTaskFinished(this);
+                return;
+            }
+            markStarted();
             try {
                 this.column = this.loader.loadColumn(this.colInfo.x, this.colInfo.z);
             } catch (IOException e) {
                 CubicChunks.LOGGER.error("Could not load column in {} @ ({}, {})", this.colInfo.world, this.colInfo.x, this.colInfo.z, e);
             }
-
             this.finished = true;
             this.notifyAll();
+            executor.onTaskFinished(this);
+        }
+        // read the data of the cubes waiting for this column ahead, without holding up anything waiting for the column.
+        // Cube loads that get there first just read their cube themselves
+        int minY, maxY;
+        synchronized (prefetchLock) {
+            minY = minPrefetchY;
+            maxY = maxPrefetchY;
+        }
+        // don't reopen the region files of an unloaded world
+        if (this.column != null && minY <= maxY && !executor.isClosed()) {
+            try {
+                this.loader.prefetchCubes(this.colInfo.x, this.colInfo.z, minY, maxY);
+            } catch (IOException e) {
+                CubicChunks.LOGGER.error("Could not prefetch cubes in {} @ ({}, {})", this.colInfo.world, this.colInfo.x, this.colInfo.z, e);
+            }
         }
     }
 }
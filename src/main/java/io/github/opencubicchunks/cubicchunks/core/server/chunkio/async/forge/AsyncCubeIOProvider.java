@@ -46,19 +46,31 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 
     @Nonnull private final QueuedCube cubeInfo;
     @Nonnull private final ICubeIO loader;
+    @Nonnull private final AsyncWorldIOExecutor executor;
 
     @Nonnull private CompletableFuture<Chunk> futureColumn = new CompletableFuture<>();
     @Nullable private ICubeIO.PartialCubeData cubeData;
 
-    AsyncCubeIOProvider(QueuedCube cube, ICubeIO loader) {
+    AsyncCubeIOProvider(QueuedCube cube, ICubeIO loader, AsyncWorldIOExecutor executor) {
         this.cubeInfo = cube;
         this.loader = loader;
+        this.executor = executor;
     }
 
     @Override
     public synchronized void run() {
         try {
-            cubeData = this.loader.loadCubeAsyncPart(futureColumn.get(), this.cubeInfo.y);
+            if (cancelled) {
+                return; // nobody wants this cube anymore, don't touch the disk
+            }
+            markStarted();
+            Chunk column = futureColumn.get();
+            if (cancelled) {
+                return; // the world has been unloaded while waiting for the column
+            }
+            // waiting for the column isn't IO done by this pool, more threads wouldn't make it faster
+            markServiceStarted();
+            cubeData = this.loader.loadCubeAsyncPart(column, this.cubeInfo.y);
         } catch (IOException e) {
             CubicChunks.LOGGER
                     .error("Could not load cube in {} @ ({}, {}, {})", this.cubeInfo.world, this.cubeInfo.x, this.cubeInfo.y, this.cubeInfo.z, e);
@@ -69,6 +81,7 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         } finally {
             this.finished = true;
             this.notifyAll();
+            executor.onTaskFinished(this);
         }
     }
 
@@ -90,6 +103,10 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         this.runCallbacks();
     }
 
+    QueuedCube getCubeInfo() {
+        return cubeInfo;
+    }
+
     @Nullable @Override
     public Cube get() {
         return cubeData == null ? null : cubeData.getCube();
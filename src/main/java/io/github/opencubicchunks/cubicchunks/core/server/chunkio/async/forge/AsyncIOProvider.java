@@ -21,7 +21,9 @@ package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
 
 import mcp.MethodsReturnNonnullByDefault;
 
+import java.util.Comparator;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -35,25 +37,84 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 abstract class AsyncIOProvider<T> implements Runnable {
 
-    private final ConcurrentLinkedQueue<Consumer<T>> callbacks = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Orders tasks by priority, and tasks with the same priority in the order they were created.
+     */
+    static final Comparator<Runnable> PRIORITY_ORDER = (r1, r2) -> {
+        AsyncIOProvider<?> t1 = (AsyncIOProvider<?>) r1;
+        AsyncIOProvider<?> t2 = (AsyncIOProvider<?>) r2;
+        int cmp = Double.compare(t1.priority, t2.priority);
+        return cmp != 0 ? cmp : Long.compare(t1.sequence, t2.sequence);
+    };
+
+    private final ConcurrentLinkedQueue<Callback<T>> callbacks = new ConcurrentLinkedQueue<>();
     volatile boolean finished = false;
+    // set when all callbacks have been removed before the task ran, the task then doesn't load anything
+    volatile boolean cancelled = false;
+
+    // lower is loaded first, tasks without a known priority are loaded last in the order they were created. Only
+    // changed while the task is not in the executor queue, as the queue doesn't expect priorities of its elements to
+    // change
+    private volatile double priority = Double.POSITIVE_INFINITY;
+    private final long sequence = nextSequence.getAndIncrement();
+
+    // System.nanoTime() timestamps for the pool sizing statistics, only accessed by the thread running the task
+    private final long createdTime = System.nanoTime();
+    private long startedTime;
+    private long serviceStartTime;
 
     /**
      * Add a callback to this access group, to be executed when the load finishes
      *
+     * @param key The key the callback can be removed with
      * @param callback The callback to execute
      */
-    void addCallback(Consumer<T> callback) {
-        this.callbacks.add(callback);
+    void addCallback(Object key, Consumer<T> callback) {
+        this.callbacks.add(new Callback<>(key, callback));
     }
 
     /**
      * Remove a callback. It will no longer be executed when the load finshes
      *
-     * @param callback The callback to remove
+     * @param key The key the callback has been added with
      */
-    void removeCallback(Consumer<T> callback) {
-        this.callbacks.remove(callback);
+    void removeCallback(Object key) {
+        this.callbacks.removeIf(c -> c.key == key);
+    }
+
+    /**
+     * Mark the time the task was taken out of the queue. Also starts the service time.
+     */
+    void markStarted() {
+        this.startedTime = this.serviceStartTime = System.nanoTime();
+    }
+
+    /**
+     * Restart the service time, excluding the time spent waiting for something other than IO.
+     */
+    void markServiceStarted() {
+        this.serviceStartTime = System.nanoTime();
+    }
+
+    /**
+     * Record the wait and service time of this task, if it has been started.
+     *
+     * @param sizer the sizer of the pool that ran the task
+     */
+    void recordTimes(AdaptivePoolSizer sizer) {
+        if (startedTime != 0) {
+            sizer.record(startedTime - createdTime, System.nanoTime() - serviceStartTime);
+        }
+    }
+
+    double getPriority() {
+        return priority;
+    }
+
+    void setPriority(double priority) {
+        this.priority = priority;
     }
 
     /**
@@ -62,9 +123,9 @@ abstract class AsyncIOProvider<T> implements Runnable {
      */
     void runCallbacks() {
         T value = this.get();
-        for (Consumer<T> callback : this.callbacks) // Sponge: Runnable -> Consumer<Cube>
+        for (Callback<T> callback : this.callbacks) // Sponge: Runnable -> Consumer<Cube>
         {
-            callback.accept(value);
+            callback.callback.accept(value);
         }
 
         this.callbacks.clear();
@@ -100,4 +161,15 @@ abstract class AsyncIOProvider<T> implements Runnable {
      */
     @Nullable
     abstract T get();
+
+    private static final class Callback<T> {
+
+        final Object key;
+        final Consumer<T> callback;
+
+        Callback(Object key, Consumer<T> callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+    }
 }
@@ -19,31 +19,30 @@
 
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Sets;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
-import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.relauncher.Side;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -53,20 +52,17 @@ import java.util.function.Consumer;
 /**
  * Brazenly copied from Forge and Sponge and reimplemented to suit our needs: Load cubes and columns outside the main
  * thread, then synchronize at the start of the next tick
+ * <p>
+ * Each cubic chunks world has its own instance, created and closed together with the world. The IO threads are shared by
+ * all worlds, and split between them by {@link FairIOScheduler} in proportion to the number of players in each world.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 @Mod.EventBusSubscriber
 public class AsyncWorldIOExecutor {
 
-    private static final int BASE_THREADS = 1;
-    private static final int PLAYERS_PER_THREAD = 50;
-
-    private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = new ConcurrentHashMap<>(20000, 0.8f, 1);
-    private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
-
     private static final AtomicInteger threadCounter = new AtomicInteger();
-    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
             new LinkedBlockingQueue<>(),
 
             // Sponge start: Use lambda
@@ -80,7 +76,7 @@ public class AsyncWorldIOExecutor {
 
     // use separate thread pool for cubes and columns to avoid situation where only cube tasks are being executed
     // all waiting for their columns
-    private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+    private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
             new LinkedBlockingQueue<>(),
 
             // Sponge start: Use lambda
@@ -92,15 +88,44 @@ public class AsyncWorldIOExecutor {
             // Sponge end
     );
 
-    // this keeps track of which columns need to be kept loaded for which currently being loaded cubes
+    private static final FairIOScheduler cubeScheduler = new FairIOScheduler(cubeThreadPool);
+    private static final FairIOScheduler columnScheduler = new FairIOScheduler(columnThreadPool);
+
+    // pool sizes follow the measured load, see AdaptivePoolSizer
+    private static final AdaptivePoolSizer cubePoolSizer = new AdaptivePoolSizer("Cube I/O", cubeThreadPool, cubeScheduler::getQueuedCount);
+    private static final AdaptivePoolSizer columnPoolSizer = new AdaptivePoolSizer("Column I/O", columnThreadPool,
+            columnScheduler::getQueuedCount);
+
+    private final World world;
+
+    // queued loads are ordered by distance to the closest player, see updateCubeLoadPriorities
+    private final FairIOScheduler.WorldQueue cubeQueue = cubeScheduler.createQueue();
+    private final FairIOScheduler.WorldQueue columnQueue = columnScheduler.createQueue();
+    // the last priorities given to updateCubeLoadPriorities and updateColumnLoadPriorities, also used for new loads
+    @Nullable private CubeLoadPriority cubeLoadPriority;
+    @Nullable private ColumnLoadPriority columnLoadPriority;
+
+    private final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = new ConcurrentHashMap<>(20000, 0.8f, 1);
+    private final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = new ConcurrentHashMap<>();
+
+    // this keeps track of how many cubes are currently being loaded for each column
     // this allows to avoid a column being unloaded while a cube that uses it is being loaded, which would lead to hard to debug errors
-    private static final Multimap<QueuedColumn, QueuedCube> loadingCubesColumnMap =
-            Multimaps.newMultimap(new ConcurrentHashMap<>(), Sets::newConcurrentHashSet);
+    // only accessed from the server thread, a count is added when a cube task is created, and removed when it's taken out of cubeTasks
+    private final Object2IntMap<QueuedColumn> loadingCubesPerColumn = new Object2IntOpenHashMap<>();
+
+    // tasks whose async part has finished, published by the IO threads and drained by the server thread in tick()
+    private final Queue<AsyncCubeIOProvider> finishedCubeTasks = new ConcurrentLinkedQueue<>();
+    private final Queue<AsyncColumnIOProvider> finishedColumnTasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    public AsyncWorldIOExecutor(World world) {
+        this.world = world;
+    }
 
     /**
      * Load a cube, directly.
      *
-     * @param world The world in which the cube lies
      * @param loader The file loader for cubes
      * @param cache the cube cache used to load cubes and columns
      * @param cubeX X coordinate of the cube to load
@@ -110,14 +135,15 @@ public class AsyncWorldIOExecutor {
      * @return The loaded cube, or null if either not present or the load failed
      */
     @Nullable
-    public static Cube syncCubeLoad(World world, ICubeIO loader, CubeProviderServer cache, int cubeX, int cubeY, int cubeZ) {
+    public Cube syncCubeLoad(ICubeIO loader, CubeProviderServer cache, int cubeX, int cubeY, int cubeZ) {
         Chunk column = cache.getColumn(cubeX, cubeZ, ICubeProviderServer.Requirement.LIGHT);
         QueuedCube key = new QueuedCube(cubeX, cubeY, cubeZ, world);
         AsyncCubeIOProvider task = cubeTasks.remove(key); // Remove task because we will call the sync callbacks directly
         if (task != null) {
-            runTask(task);
+            releaseColumn(key);
+            runTask(cubeScheduler, cubeQueue, task);
         } else {
-            task = new AsyncCubeIOProvider(key, loader);
+            task = new AsyncCubeIOProvider(key, loader, this);
             task.setColumn(column);
             task.run();
         }
@@ -128,48 +154,33 @@ public class AsyncWorldIOExecutor {
     /**
      * Load a column, directly
      *
-     * @param world The world in which the column lies
      * @param loader The file loader for columns
      * @param x column x position
      * @param z column z position
      *
      * @return The loaded column
      */
-    @Nullable public static Chunk syncColumnLoad(World world, ICubeIO loader, int x, int z) {
+    @Nullable public Chunk syncColumnLoad(ICubeIO loader, int x, int z) {
         QueuedColumn key = new QueuedColumn(x, z, world);
         AsyncColumnIOProvider task = columnTasks.remove(key); // Remove task because we will call the sync callbacks directly
         if (task != null) {
-            runTask(task);
+            runTask(columnScheduler, columnQueue, task);
         } else {
-            task = new AsyncColumnIOProvider(key, loader, ((ICubicWorldInternal.Server) world).getCubeCache().getCubeGenerator());
+            task = new AsyncColumnIOProvider(key, loader, ((ICubicWorldInternal.Server) world).getCubeCache().getCubeGenerator(), this);
             task.run();
         }
         task.runSynchronousPart();
         return task.get();
     }
 
-    /**
-     * Runs the async part in current thread or blocks until already running async part is finished
-     */
-    private static void runTask(AsyncCubeIOProvider task) {
-        runTask(cubeThreadPool, task);
-    }
-
-    /**
-     * Runs the async part in current thread or blocks until already running async part is finished
-     */
-    private static void runTask(AsyncColumnIOProvider task) {
-        runTask(columnThreadPool, task);
-    }
-
     /**
      * Runs the async part in current thread or blocks until already running async part is finished.
      * <p>
-     * Uses the given ThreadPoolExecutor.
+     * Uses the given scheduler.
      */
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
-    private static void runTask(ThreadPoolExecutor executor, AsyncIOProvider<?> task) {
-        if (!executor.remove(task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
+    private static void runTask(FairIOScheduler scheduler, FairIOScheduler.WorldQueue queue, AsyncIOProvider<?> task) {
+        if (!scheduler.remove(queue, task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
         {
             synchronized (task) // Warn incorrect - task shared via map
             {
@@ -196,7 +207,6 @@ public class AsyncWorldIOExecutor {
      * if the column has to be loaded, too! If you need it faster, consider sync loading either column or both
      * cube and column.
      *
-     * @param world The world of the cube
      * @param loader The file loader for this world
      * @param cache The server cube cache
      * @param x cube x position
@@ -204,22 +214,37 @@ public class AsyncWorldIOExecutor {
      * @param z cube z position
      * @param runnable The callback
      */
-    public static void queueCubeLoad(World world, ICubeIO loader, CubeProviderServer cache, int x, int y, int z, Consumer<Cube> runnable) {
+    public void queueCubeLoad(ICubeIO loader, CubeProviderServer cache, int x, int y, int z, Consumer<Cube> runnable) {
+        queueCubeLoad(loader, cache, x, y, z, runnable, runnable);
+    }
 
+    /**
+     * Queue a cube load, running the specified callback when the load has finished. The callback can be removed
+     * using the given key with {@link #dropQueuedCubeLoad(int, int, int, Object)}.
+     *
+     * @param loader The file loader for this world
+     * @param cache The server cube cache
+     * @param x cube x position
+     * @param y cube y position
+     * @param z cube z position
+     * @param callbackKey The key to drop the load with
+     * @param runnable The callback
+     */
+    public void queueCubeLoad(ICubeIO loader, CubeProviderServer cache, int x, int y, int z, Object callbackKey, Consumer<Cube> runnable) {
         QueuedCube key = new QueuedCube(x, y, z, world);
-        QueuedColumn columnKey = new QueuedColumn(x, z, world);
         AsyncCubeIOProvider task = cubeTasks.get(key);
 
-        loadingCubesColumnMap.put(columnKey, key);
-
         if (task == null) {
-            task = new AsyncCubeIOProvider(key, loader);
-            task.addCallback(runnable); // Add before calling execute for thread safety
-            task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
+            task = new AsyncCubeIOProvider(key, loader, this);
+            task.addCallback(callbackKey, runnable); // Add before calling execute for thread safety
             cubeTasks.put(key, task);
-            cubeThreadPool.execute(task);
+            loadingCubesPerColumn.mergeInt(new QueuedColumn(x, z, world), 1, Integer::sum);
+            if (cubeLoadPriority != null) {
+                setPriority(task, cubeLoadPriority.getPriority(x, y, z));
+            }
+            cubeScheduler.submit(cubeQueue, task);
         } else {
-            task.addCallback(runnable);
+            task.addCallback(callbackKey, runnable);
         }
 
         Chunk loadedIColumn;
@@ -235,35 +260,102 @@ public class AsyncWorldIOExecutor {
     /**
      * Queue a column load, running the specified callback when the load has finished
      *
-     * @param world The world of the column
      * @param loader The file loader for this world
      * @param x column x position
      * @param z column z position
      * @param runnable The callback
      */
-    public static void queueColumnLoad(World world, ICubeIO loader, int x, int z, Consumer<Chunk> runnable) {
+    public void queueColumnLoad(ICubeIO loader, int x, int z, Consumer<Chunk> runnable) {
+        queueColumnLoad(loader, x, z, runnable, runnable);
+    }
+
+    /**
+     * Queue a column load, running the specified callback when the load has finished. The callback can be removed
+     * using the given key with {@link #dropQueuedColumnLoad(int, int, Object)}.
+     *
+     * @param loader The file loader for this world
+     * @param x column x position
+     * @param z column z position
+     * @param callbackKey The key to drop the load with
+     * @param runnable The callback
+     */
+    public void queueColumnLoad(ICubeIO loader, int x, int z, Object callbackKey, Consumer<Chunk> runnable) {
         QueuedColumn key = new QueuedColumn(x, z, world);
         AsyncColumnIOProvider task = columnTasks.get(key);
         if (task == null) {
-            task = new AsyncColumnIOProvider(key, loader, ((ICubicWorldInternal.Server) world).getCubeCache().getCubeGenerator());
-            task.addCallback(runnable); // Add before calling execute for thread safety
+            task = new AsyncColumnIOProvider(key, loader, ((ICubicWorldInternal.Server) world).getCubeCache().getCubeGenerator(), this);
+            task.addCallback(callbackKey, runnable); // Add before calling execute for thread safety
             columnTasks.put(key, task);
-            columnThreadPool.execute(task);
+            if (columnLoadPriority != null) {
+                setPriority(task, columnLoadPriority.getPriority(x, z));
+            }
+            columnScheduler.submit(columnQueue, task);
         } else {
-            task.addCallback(runnable);
+            task.addCallback(callbackKey, runnable);
+        }
+    }
+
+    private static void setPriority(AsyncIOProvider<?> task, double priority) {
+        if (!Double.isNaN(priority)) {
+            task.setPriority(priority);
+        }
+    }
+
+    /**
+     * Changes the order in which queued cube loads of this world are executed. Cube loads queued later get their
+     * priority from the same function, until it is updated again. Should be called on the server thread.
+     *
+     * @param priority Priority of each queued cube, lower values are loaded first. {@link Double#NaN} to keep the
+     * current priority
+     */
+    public void updateCubeLoadPriorities(CubeLoadPriority priority) {
+        this.cubeLoadPriority = priority;
+        cubeScheduler.updatePriorities(cubeQueue, task -> {
+            QueuedCube cube = ((AsyncCubeIOProvider) task).getCubeInfo();
+            return priority.getPriority(cube.x, cube.y, cube.z);
+        });
+    }
+
+    /**
+     * Changes the order in which queued column loads of this world are executed. Column loads queued later get their
+     * priority from the same function, until it is updated again. Should be called on the server thread.
+     *
+     * @param priority Priority of each queued column, lower values are loaded first. {@link Double#NaN} to keep the
+     * current priority
+     */
+    public void updateColumnLoadPriorities(ColumnLoadPriority priority) {
+        this.columnLoadPriority = priority;
+        columnScheduler.updatePriorities(columnQueue, task -> {
+            QueuedColumn column = ((AsyncColumnIOProvider) task).getColumnInfo();
+            return priority.getPriority(column.x, column.z);
+        });
+    }
+
+    /**
+     * Read the given range of cubes ahead when the queued load of their column finishes. Does nothing if the column
+     * isn't being loaded.
+     *
+     * @param x column x position
+     * @param z column z position
+     * @param minCubeY lowest cube y position to read
+     * @param maxCubeY highest cube y position to read
+     */
+    public void prefetchColumnCubes(int x, int z, int minCubeY, int maxCubeY) {
+        AsyncColumnIOProvider task = columnTasks.get(new QueuedColumn(x, z, world));
+        if (task != null) {
+            task.addPrefetchRange(minCubeY, maxCubeY);
         }
     }
 
     /**
      * Notify the loader that this cube isn't needed anymore
      *
-     * @param world The world
      * @param x cube x position
      * @param y cube y position
      * @param z cube z position
-     * @param runnable The runnable that should be dropped
+     * @param callbackKey The key of the callback that should be dropped
      */
-    public static void dropQueuedCubeLoad(World world, int x, int y, int z, Consumer<Cube> runnable) {
+    public void dropQueuedCubeLoad(int x, int y, int z, Object callbackKey) {
         QueuedCube key = new QueuedCube(x, y, z, world);
         AsyncCubeIOProvider task = cubeTasks.get(key);
         if (task == null) {
@@ -271,24 +363,27 @@ public class AsyncWorldIOExecutor {
             return;
         }
 
-        task.removeCallback(runnable);
+        task.removeCallback(callbackKey);
 
-        // TODO this is not threadsafe
+        // Tasks are only added to and removed from the map on the server thread, so nothing can add a callback here.
+        // If an IO thread is already loading the cube, the result is discarded because the task isn't in the map
+        // anymore. Otherwise the cancelled flag stops it before it reads anything.
         if (!task.hasCallbacks()) {
-            cubeTasks.remove(key);
-            cubeThreadPool.remove(task);
+            task.cancelled = true;
+            cubeTasks.remove(key, task);
+            cubeScheduler.remove(cubeQueue, task);
+            releaseColumn(key);
         }
     }
 
     /**
      * Notify the loader that this column isn't needed anymore
      *
-     * @param world The world
      * @param x column x position
      * @param z column z postion
-     * @param runnable The runnable that should be dropped
+     * @param callbackKey The key of the callback that should be dropped
      */
-    public static void dropQueuedColumnLoad(World world, int x, int z, Consumer<Chunk> runnable) {
+    public void dropQueuedColumnLoad(int x, int z, Object callbackKey) {
         QueuedColumn key = new QueuedColumn(x, z, world);
         AsyncColumnIOProvider task = columnTasks.get(key);
         if (task == null) {
@@ -296,76 +391,147 @@ public class AsyncWorldIOExecutor {
             return;
         }
 
-        task.removeCallback(runnable);
+        task.removeCallback(callbackKey);
 
+        // see dropQueuedCubeLoad. Cube loads waiting for this column have their own callbacks, so they keep it alive
         if (!task.hasCallbacks()) {
-            columnTasks.remove(key);
-            columnThreadPool.remove(task);
+            task.cancelled = true;
+            columnTasks.remove(key, task);
+            columnScheduler.remove(columnQueue, task);
         }
 
         //TODO: remove all queued cube tasks for that column
     }
 
     /**
-     * Run a synchronous tick, finishing the loading process for load tasks that are ready
+     * Run a synchronous tick, finishing the loading process for load tasks that are ready. Stops after
+     * {@link CubicChunksConfig#asyncLoadTickBudgetMillis}, the remaining tasks are finished in the next tick.
      */
-    public static void tick() {
-        Iterator<AsyncCubeIOProvider> cubeItr = cubeTasks.values().iterator();
-        while (cubeItr.hasNext()) {
-            AsyncCubeIOProvider task = cubeItr.next();
-            if (task.isFinished()) {
-                task.runSynchronousPart();
-
-                cubeItr.remove();
+    public void tick() {
+        if (closed) {
+            return;
+        }
+        // worlds without players still get a share, for spawn chunks, chunk loaders and pregeneration
+        double weight = 1 + world.playerEntities.size();
+        cubeQueue.setWeight(weight);
+        columnQueue.setWeight(weight);
+
+        long stopTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CubicChunksConfig.asyncLoadTickBudgetMillis);
+
+        // columns first, cube loads can't finish before the synchronous part of their column has run anyway
+        AsyncColumnIOProvider column;
+        while (System.nanoTime() < stopTime && (column = finishedColumnTasks.poll()) != null) {
+            // tasks that have been dropped or finished by a sync load aren't in the map anymore
+            if (columnTasks.remove(column.getColumnInfo(), column)) {
+                column.runSynchronousPart();
             }
         }
 
-        Iterator<AsyncColumnIOProvider> columnIter = columnTasks.values().iterator();
-        while (columnIter.hasNext()) {
-            AsyncColumnIOProvider task = columnIter.next();
-            if (task.isFinished()) {
-                task.runSynchronousPart();
-
-                columnIter.remove();
+        AsyncCubeIOProvider cube;
+        while (System.nanoTime() < stopTime && (cube = finishedCubeTasks.poll()) != null) {
+            QueuedCube key = cube.getCubeInfo();
+            if (cubeTasks.remove(key, cube)) {
+                releaseColumn(key);
+                cube.runSynchronousPart();
             }
         }
     }
 
     /**
-     * Resize async loading pool thread count when players join or leave
-     *
-     * @param players New player count
+     * @return true if the world has been unloaded
      */
-    private static void adjustPoolSize(int players) {
-        cubeThreadPool.setCorePoolSize(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+    boolean isClosed() {
+        return closed;
     }
 
-    public static boolean canDropColumn(World world, int x, int z) {
-        return !loadingCubesColumnMap.containsKey(new QueuedColumn(x, z, world));
+    /**
+     * Drop all queued loads of this world. Called when the world is unloaded, loads queued afterwards are never
+     * started.
+     */
+    public void close() {
+        closed = true;
+        cubeScheduler.removeQueue(cubeQueue);
+        columnScheduler.removeQueue(columnQueue);
+        for (AsyncColumnIOProvider task : columnTasks.values()) {
+            task.cancelled = true;
+        }
+        for (AsyncCubeIOProvider task : cubeTasks.values()) {
+            task.cancelled = true;
+            // release cube loads already running and waiting for a column that won't be loaded anymore
+            task.setColumn(null);
+        }
+        columnTasks.clear();
+        cubeTasks.clear();
+        loadingCubesPerColumn.clear();
+        finishedColumnTasks.clear();
+        finishedCubeTasks.clear();
     }
 
-    // Resize thread pool based on player count
-    @SubscribeEvent
-    public static void onPlayerLoggedIn(@Nonnull PlayerEvent.PlayerLoggedInEvent evt) {
-        MinecraftServer server = evt.player.getServer();
-        if (server != null) {
-            adjustPoolSize(server.getCurrentPlayerCount());
+    /**
+     * Called by the IO threads when the async part of a task is done.
+     */
+    void onTaskFinished(AsyncCubeIOProvider task) {
+        task.recordTimes(cubePoolSizer);
+        if (!closed) {
+            finishedCubeTasks.add(task);
         }
     }
 
-    @SubscribeEvent
-    public static void onPlayerLoggedOut(@Nonnull PlayerEvent.PlayerLoggedOutEvent evt) {
-        MinecraftServer server = evt.player.getServer();
-        if (server != null) {
-            adjustPoolSize(server.getCurrentPlayerCount());
+    /**
+     * Called by the IO threads when the async part of a task is done.
+     */
+    void onTaskFinished(AsyncColumnIOProvider task) {
+        task.recordTimes(columnPoolSizer);
+        if (!closed) {
+            finishedColumnTasks.add(task);
+        }
+    }
+
+    private void releaseColumn(QueuedCube cube) {
+        QueuedColumn column = new QueuedColumn(cube.x, cube.z, cube.world);
+        if (loadingCubesPerColumn.mergeInt(column, -1, Integer::sum) <= 0) {
+            loadingCubesPerColumn.removeInt(column);
         }
     }
 
+    public boolean canDropColumn(int x, int z) {
+        return !loadingCubesPerColumn.containsKey(new QueuedColumn(x, z, world));
+    }
+
+    /**
+     * Resize the IO thread pools shared by all worlds if needed. Called once per server tick, on the server thread.
+     */
+    public static void updatePoolSizes() {
+        cubePoolSizer.update();
+        columnPoolSizer.update();
+    }
+
+    /**
+     * Describes the current state of the IO thread pools, for debugging.
+     *
+     * @return thread count, queue depth, wait and service times and the last sizing decision of each pool
+     */
+    public static String getPoolStats() {
+        return cubePoolSizer + "; " + columnPoolSizer;
+    }
+
+    @FunctionalInterface
+    public interface CubeLoadPriority {
+
+        double getPriority(int cubeX, int cubeY, int cubeZ);
+    }
+
+    @FunctionalInterface
+    public interface ColumnLoadPriority {
+
+        double getPriority(int columnX, int columnZ);
+    }
+
     // Sync completion of loading
     @SubscribeEvent
     public static void onWorldTick(TickEvent.WorldTickEvent evt) {
-        if (evt.phase == TickEvent.Phase.END) {
-            tick();
+        if (evt.phase == TickEvent.Phase.END && evt.side == Side.SERVER && ((ICubicWorld) evt.world).isCubicWorld()) {
+            ((ICubicWorldInternal.Server) evt.world).getAsyncIOExecutor().tick();
         }
     }
 }
@@ -0,0 +1,199 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.ToDoubleFunction;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Shares the threads of an IO thread pool between worlds using weighted fair queuing.
+ * <p>
+ * Each world has its own {@link WorldQueue}, ordered by load priority. Every started task advances the virtual time of
+ * its queue by the inverse of the queue weight, and the next task is always taken from the non-empty queue with the
+ * lowest virtual time. A world with twice the weight gets twice as many tasks started while both have work queued, and
+ * a world with an IO storm can't delay the loads of other worlds by more than their share.
+ * <p>
+ * The executor queue only holds tokens. Each submitted task adds one token, and each token runs the task picked by the
+ * scheduler at the time a thread becomes available. Removed tasks leave their token behind, which then runs nothing or
+ * the next task in line.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class FairIOScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private final List<WorldQueue> queues = new ArrayList<>();
+    private final Runnable token = this::runNext;
+
+    // virtual time of the last started task
+    private double virtualTime;
+    private int queuedCount;
+
+    FairIOScheduler(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Create the queue of a new world.
+     *
+     * @return the queue
+     */
+    synchronized WorldQueue createQueue() {
+        WorldQueue queue = new WorldQueue();
+        queue.virtualTime = virtualTime;
+        queues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Remove the queue of a world that is being unloaded. The tasks in it won't be started.
+     *
+     * @param queue the queue
+     * @return the tasks that were still queued
+     */
+    synchronized List<AsyncIOProvider<?>> removeQueue(WorldQueue queue) {
+        queues.remove(queue);
+        queue.removed = true;
+        List<AsyncIOProvider<?>> tasks = new ArrayList<>(queue.tasks);
+        queuedCount -= tasks.size();
+        queue.tasks.clear();
+        return tasks;
+    }
+
+    /**
+     * Queue a task to be run on the thread pool.
+     *
+     * @param queue the queue of the world of the task
+     * @param task the task
+     */
+    void submit(WorldQueue queue, AsyncIOProvider<?> task) {
+        synchronized (this) {
+            if (queue.removed) {
+                return;
+            }
+            if (queue.tasks.isEmpty()) {
+                // an idle world doesn't save up credit, it starts where the others currently are
+                queue.virtualTime = Math.max(queue.virtualTime, virtualTime);
+            }
+            queue.tasks.add(task);
+            queuedCount++;
+        }
+        executor.execute(token);
+    }
+
+    /**
+     * Remove a task that hasn't been started yet.
+     *
+     * @param queue the queue of the world of the task
+     * @param task the task
+     * @return true if the task was removed, false if it was already started or never queued
+     */
+    synchronized boolean remove(WorldQueue queue, AsyncIOProvider<?> task) {
+        if (queue.tasks.remove(task)) {
+            queuedCount--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Change the priorities of tasks of one world.
+     *
+     * @param queue the queue of the world
+     * @param priority new priority for each task, {@link Double#NaN} to keep the current one
+     */
+    synchronized void updatePriorities(WorldQueue queue, ToDoubleFunction<AsyncIOProvider<?>> priority) {
+        // the queue doesn't support changing priorities of queued elements, so take them out, update and put them back
+        List<Runnable> tasks = new ArrayList<>(queue.tasks);
+        queue.tasks.clear();
+        for (Runnable r : tasks) {
+            AsyncIOProvider<?> task = (AsyncIOProvider<?>) r;
+            double p = priority.applyAsDouble(task);
+            if (!Double.isNaN(p)) {
+                task.setPriority(p);
+            }
+        }
+        queue.tasks.addAll(tasks);
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread, in all worlds
+     */
+    synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    @Nullable
+    private synchronized AsyncIOProvider<?> pollNext() {
+        WorldQueue next = null;
+        for (WorldQueue queue : queues) {
+            if (!queue.tasks.isEmpty() && (next == null || queue.virtualTime < next.virtualTime)) {
+                next = queue;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        virtualTime = next.virtualTime;
+        next.virtualTime += 1 / next.weight;
+        queuedCount--;
+        return (AsyncIOProvider<?>) next.tasks.poll();
+    }
+
+    private void runNext() {
+        AsyncIOProvider<?> task = pollNext();
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * The queued tasks of one world.
+     */
+    static final class WorldQueue {
+
+        private final PriorityQueue<Runnable> tasks = new PriorityQueue<>(AsyncIOProvider.PRIORITY_ORDER);
+        private double virtualTime;
+        private volatile double weight = 1;
+        private boolean removed;
+
+        /**
+         * Set the share of the threads this world gets, relative to other worlds.
+         *
+         * @param weight the weight, must be positive
+         */
+        void setWeight(double weight) {
+            this.weight = weight;
+        }
+    }
+}
@@ -47,6 +47,8 @@ import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.SidedProxy;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -61,86 +63,204 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class FastCubeBlockAccess implements ILightBlockAccess {
 
     @SidedProxy private static GetLoadedChunksProxy getLoadedChunksProxy;
-    @Nonnull private final ExtendedBlockStorage[][][] cache;
-    @Nonnull private final Cube[][][] cubes;
-    @Nonnull private final Chunk[][] columns;
-    private final int originX, originY, originZ;
-    private final int dx, dy, dz;
     @Nonnull private final World world;
+    @Nullable private ICubeProviderInternal prov;
+    // cubes in the window are indexed (x * dy + y) * dz + z and columns x * dz + z, relative to the origin.
+    // Each slot is looked up from the cube provider the first time it's used.
+    @Nonnull private Cube[] cubes = new Cube[0];
+    @Nonnull private boolean[] cubeCached = new boolean[0];
+    @Nonnull private Chunk[] columns = new Chunk[0];
+    @Nonnull private boolean[] columnCached = new boolean[0];
+    // arrays of the previous window, reused when the window is moved
+    @Nonnull private Cube[] spareCubes = new Cube[0];
+    @Nonnull private boolean[] spareCubeCached = new boolean[0];
+    @Nonnull private Chunk[] spareColumns = new Chunk[0];
+    @Nonnull private boolean[] spareColumnCached = new boolean[0];
+    private int originX, originY, originZ;
+    private int dx, dy, dz;
+    // only used for block methods that need a BlockPos
+    @Nonnull private final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
+    // when set, cubes that aren't loaded are dark and accessing their light is reported to it
+    @Nullable private MissingCubeListener missingCubeListener;
 
     public FastCubeBlockAccess(ICubeProviderInternal cache, ICube cube, int radius) {
-        this(cube.getWorld(), cache,
-                cube.getCoords().sub(radius, radius, radius), cube.getCoords().add(radius, radius, radius));
+        this(cube.getWorld());
+        this.setWindow(cache, cube.getCoords().sub(radius, radius, radius), cube.getCoords().add(radius, radius, radius));
     }
 
-    private FastCubeBlockAccess(World world, ICubeProviderInternal prov, CubePos start, CubePos end) {
-        this.dx = Math.abs(end.getX() - start.getX()) + 1;
-        this.dy = Math.abs(end.getY() - start.getY()) + 1;
-        this.dz = Math.abs(end.getZ() - start.getZ()) + 1;
-
+    /**
+     * Creates a block access with an empty window, to be positioned with
+     * {@link #setWindow(ICubeProviderInternal, CubePos, CubePos)} and reused.
+     *
+     * @param world the world
+     */
+    public FastCubeBlockAccess(World world) {
         this.world = world;
-        this.cache = new ExtendedBlockStorage[dx][dy][dz];
-        this.cubes = new Cube[dx][dy][dz];
-        this.columns = new Chunk[dx][dz];
-        this.originX = Math.min(start.getX(), end.getX());
-        this.originY = Math.min(start.getY(), end.getY());
-        this.originZ = Math.min(start.getZ(), end.getZ());
-
-        for (int relativeCubeX = 0; relativeCubeX < dx; relativeCubeX++) {
-            for (int relativeCubeZ = 0; relativeCubeZ < dz; relativeCubeZ++) {
-                this.columns[relativeCubeX][relativeCubeZ] = prov.getLoadedColumn(originX + relativeCubeX, originZ + relativeCubeZ);
-                for (int relativeCubeY = 0; relativeCubeY < dy; relativeCubeY++) {
-                    Cube cube = prov.getLoadedCube(originX + relativeCubeX, originY + relativeCubeY, originZ + relativeCubeZ);
-                    if (cube != null) {
-                        ExtendedBlockStorage storage = cube.getStorage();
-                        this.cache[relativeCubeX][relativeCubeY][relativeCubeZ] = storage;
-                        this.cubes[relativeCubeX][relativeCubeY][relativeCubeZ] = cube;
+    }
+
+    /**
+     * Moves this block access to the cubes between start and end (inclusive). Cubes that were already in the previous
+     * window are kept, so moving the window by a small amount is cheap.
+     *
+     * @param prov the cube provider to get cubes from
+     * @param start one corner of the window
+     * @param end the opposite corner of the window
+     */
+    public void setWindow(ICubeProviderInternal prov, CubePos start, CubePos end) {
+        int newOriginX = Math.min(start.getX(), end.getX());
+        int newOriginY = Math.min(start.getY(), end.getY());
+        int newOriginZ = Math.min(start.getZ(), end.getZ());
+        int newDx = Math.abs(end.getX() - start.getX()) + 1;
+        int newDy = Math.abs(end.getY() - start.getY()) + 1;
+        int newDz = Math.abs(end.getZ() - start.getZ()) + 1;
+        if (prov == this.prov && newOriginX == originX && newOriginY == originY && newOriginZ == originZ
+                && newDx == dx && newDy == dy && newDz == dz) {
+            return;
+        }
+        int cubeCount = newDx * newDy * newDz;
+        int columnCount = newDx * newDz;
+        if (spareCubes.length < cubeCount) {
+            spareCubes = new Cube[cubeCount];
+            spareCubeCached = new boolean[cubeCount];
+        }
+        if (spareColumns.length < columnCount) {
+            spareColumns = new Chunk[columnCount];
+            spareColumnCached = new boolean[columnCount];
+        }
+        boolean keepOld = prov == this.prov;
+        for (int x = 0; x < newDx; x++) {
+            for (int z = 0; z < newDz; z++) {
+                int oldX = newOriginX + x - originX;
+                int oldZ = newOriginZ + z - originZ;
+                boolean oldColumnInWindow = keepOld && oldX >= 0 && oldX < dx && oldZ >= 0 && oldZ < dz;
+                int columnIdx = x * newDz + z;
+                if (oldColumnInWindow && columnCached[oldX * dz + oldZ]) {
+                    spareColumns[columnIdx] = columns[oldX * dz + oldZ];
+                    spareColumnCached[columnIdx] = true;
+                } else {
+                    spareColumns[columnIdx] = null;
+                    spareColumnCached[columnIdx] = false;
+                }
+                for (int y = 0; y < newDy; y++) {
+                    int oldY = newOriginY + y - originY;
+                    int cubeIdx = (x * newDy + y) * newDz + z;
+                    if (oldColumnInWindow && oldY >= 0 && oldY < dy && cubeCached[(oldX * dy + oldY) * dz + oldZ]) {
+                        spareCubes[cubeIdx] = cubes[(oldX * dy + oldY) * dz + oldZ];
+                        spareCubeCached[cubeIdx] = true;
+                    } else {
+                        spareCubes[cubeIdx] = null;
+                        spareCubeCached[cubeIdx] = false;
                     }
                 }
             }
         }
+        Cube[] oldCubes = cubes;
+        boolean[] oldCubeCached = cubeCached;
+        Chunk[] oldColumns = columns;
+        boolean[] oldColumnCached = columnCached;
+        cubes = spareCubes;
+        cubeCached = spareCubeCached;
+        columns = spareColumns;
+        columnCached = spareColumnCached;
+        // don't keep references to unloaded cubes in the spare arrays
+        Arrays.fill(oldCubes, null);
+        Arrays.fill(oldColumns, null);
+        spareCubes = oldCubes;
+        spareCubeCached = oldCubeCached;
+        spareColumns = oldColumns;
+        spareColumnCached = oldColumnCached;
+
+        this.prov = prov;
+        this.originX = newOriginX;
+        this.originY = newOriginY;
+        this.originZ = newOriginZ;
+        this.dx = newDx;
+        this.dy = newDy;
+        this.dz = newDz;
     }
 
-    @Nullable
-    private ExtendedBlockStorage getStorage(int blockX, int blockY, int blockZ) {
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeY = Coords.blockToCube(blockY);
-        int cubeZ = Coords.blockToCube(blockZ);
-        if (cubeX < originX || cubeY < originY || cubeZ < originZ)
-            return null;
-        cubeX -= originX;
-        cubeY -= originY;
-        cubeZ -= originZ;
-        if (cubeX >= dx || cubeY >= dy || cubeZ >= dz)
-            return null;
-        return this.cache[cubeX][cubeY][cubeZ];
+    /**
+     * Makes light in cubes that are not loaded read as 0 instead of the default light value, and reports every access
+     * to light in these cubes to the given listener, so that it can be updated when they load.
+     *
+     * @param listener the listener, or null to read the default light value from cubes that are not loaded
+     */
+    public void setMissingCubeListener(@Nullable MissingCubeListener listener) {
+        this.missingCubeListener = listener;
     }
 
-    private void setStorage(int blockX, int blockY, int blockZ, @Nullable ExtendedBlockStorage ebs) {
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeY = Coords.blockToCube(blockY);
-        int cubeZ = Coords.blockToCube(blockZ);
+    /**
+     * Forget the cached cube at the given position, and its column. Must be called when a cube is loaded or unloaded.
+     * The column is forgotten even if the cube is above or below the window.
+     */
+    public void invalidateCube(int cubeX, int cubeY, int cubeZ) {
+        invalidateColumn(cubeX, cubeZ);
+        int x = cubeX - originX;
+        int y = cubeY - originY;
+        int z = cubeZ - originZ;
+        if (x < 0 || y < 0 || z < 0 || x >= dx || y >= dy || z >= dz) {
+            return;
+        }
+        int idx = (x * dy + y) * dz + z;
+        cubes[idx] = null;
+        cubeCached[idx] = false;
+    }
 
-        this.cache[cubeX - originX][cubeY - originY][cubeZ - originZ] = ebs;
+    /**
+     * Forget the cached column at the given position. Must be called when a column is loaded or unloaded.
+     */
+    public void invalidateColumn(int cubeX, int cubeZ) {
+        int x = cubeX - originX;
+        int z = cubeZ - originZ;
+        if (x < 0 || z < 0 || x >= dx || z >= dz) {
+            return;
+        }
+        columns[x * dz + z] = null;
+        columnCached[x * dz + z] = false;
     }
 
     @Nullable
-    private Cube getCube(int blockX, int blockY, int blockZ) {
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeY = Coords.blockToCube(blockY);
-        int cubeZ = Coords.blockToCube(blockZ);
-        if (cubeX < originX || cubeY < originY || cubeZ < originZ)
+    private Cube getCubeAt(int cubeX, int cubeY, int cubeZ) {
+        int x = cubeX - originX;
+        int y = cubeY - originY;
+        int z = cubeZ - originZ;
+        if (x < 0 || y < 0 || z < 0 || x >= dx || y >= dy || z >= dz) {
             return null;
-        cubeX -= originX;
-        cubeY -= originY;
-        cubeZ -= originZ;
-        if (cubeX >= dx || cubeY >= dy || cubeZ >= dz)
+        }
+        int idx = (x * dy + y) * dz + z;
+        if (!cubeCached[idx]) {
+            assert prov != null;
+            cubes[idx] = prov.getLoadedCube(cubeX, cubeY, cubeZ);
+            cubeCached[idx] = true;
+        }
+        return cubes[idx];
+    }
+
+    @Nullable
+    private Chunk getColumnAt(int cubeX, int cubeZ) {
+        int x = cubeX - originX;
+        int z = cubeZ - originZ;
+        if (x < 0 || z < 0 || x >= dx || z >= dz) {
             return null;
-        return this.cubes[cubeX][cubeY][cubeZ];
+        }
+        int idx = x * dz + z;
+        if (!columnCached[idx]) {
+            assert prov != null;
+            columns[idx] = prov.getLoadedColumn(cubeX, cubeZ);
+            columnCached[idx] = true;
+        }
+        return columns[idx];
+    }
+
+    @Nullable
+    private ExtendedBlockStorage getStorage(int blockX, int blockY, int blockZ) {
+        Cube cube = this.getCube(blockX, blockY, blockZ);
+        return cube == null ? null : cube.getStorage();
     }
 
-    private IBlockState getBlockState(BlockPos pos) {
-        return this.getBlockState(pos.getX(), pos.getY(), pos.getZ());
+    @Nullable
+    private Cube getCube(int blockX, int blockY, int blockZ) {
+        return this.getCubeAt(Coords.blockToCube(blockX), Coords.blockToCube(blockY), Coords.blockToCube(blockZ));
     }
 
     private IBlockState getBlockState(int blockX, int blockY, int blockZ) {
@@ -152,17 +272,17 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override
-    public int getBlockLightOpacity(BlockPos pos) {
-        return this.getBlockState(pos.getX(), pos.getY(), pos.getZ()).getLightOpacity((World) world, pos);
+    public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return this.getBlockState(blockX, blockY, blockZ).getLightOpacity((World) world, mutablePos.setPos(blockX, blockY, blockZ));
     }
 
     @Override 
-    public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+    public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 return ebs.getSkyLight(localX, localY, localZ);
@@ -170,16 +290,22 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
                 return ebs.getBlockLight(localX, localY, localZ);
             }
         }
+        if (missingCubeListener != null && getCube(blockX, blockY, blockZ) == null) {
+            missingCubeListener.onMissingCube(Coords.blockToCube(blockX), Coords.blockToCube(blockY), Coords.blockToCube(blockZ));
+            return 0;
+        }
         return lightType.defaultLightValue;
     }
 
     @Override 
-    public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+    public boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        Cube cube = getCube(blockX, blockY, blockZ);
+        ExtendedBlockStorage ebs = cube == null ? null : cube.getStorage();
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            cube.onLightChanged();
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 ebs.setSkyLight(localX, localY, localZ, val);
@@ -188,40 +314,30 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
             }
             return true;
         }
-        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
         if (cube != null) {
-            cube.setLightFor(lightType, pos, val);
-            setStorage(pos.getX(), pos.getY(), pos.getZ(), cube.getStorage());
+            cube.setLightFor(lightType, mutablePos.setPos(blockX, blockY, blockZ), val);
             return true;
         }
+        if (missingCubeListener != null) {
+            missingCubeListener.onMissingCube(Coords.blockToCube(blockX), Coords.blockToCube(blockY), Coords.blockToCube(blockZ));
+        }
         return false;
     }
 
-    @Override public boolean canSeeSky(BlockPos pos) {
-        int blockX = pos.getX();
-        int blockY = pos.getY();
-        int blockZ = pos.getZ();
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeZ = Coords.blockToCube(blockZ);
-        if (cubeX < originX || cubeZ < originZ)
-            return false;
-        cubeX -= originX;
-        cubeZ -= originZ;
-        if (cubeX >= dx || cubeZ >= dz)
-            return false;
-        Chunk column = columns[cubeX][cubeZ];
+    @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
+        Chunk column = getColumnAt(Coords.blockToCube(blockX), Coords.blockToCube(blockZ));
         if (column == null)
             return false;
         int height = column.getHeightValue(blockToLocal(blockX), blockToLocal(blockZ));
         return height <= blockY;
     }
 
-    @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+    @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
         switch (type) {
             case BLOCK:
-                return getBlockState(pos).getLightValue((IBlockAccess) world, pos);
+                return getBlockState(blockX, blockY, blockZ).getLightValue((IBlockAccess) world, mutablePos.setPos(blockX, blockY, blockZ));
             case SKY:
-                return canSeeSky(pos) ? 15 : 0;
+                return canSeeSky(blockX, blockY, blockZ) ? 15 : 0;
             default:
                 throw new AssertionError();
         }
@@ -231,8 +347,14 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         //TODO: fix it
         BlockPos midPos = Coords.midPos(startPos, endPos);
         Cube center = prov.getCube(CubePos.fromBlockCoords(midPos));
-        return new FastCubeBlockAccess(center.getWorld(), prov,
-                CubePos.fromBlockCoords(startPos), CubePos.fromBlockCoords(endPos));
+        FastCubeBlockAccess blockAccess = new FastCubeBlockAccess(center.getWorld());
+        blockAccess.setWindow(prov, CubePos.fromBlockCoords(startPos), CubePos.fromBlockCoords(endPos));
+        return blockAccess;
+    }
+
+    public interface MissingCubeListener {
+
+        void onMissingCube(int cubeX, int cubeY, int cubeZ);
     }
 
     private interface GetLoadedChunksProxy {
@@ -261,12 +383,9 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override
-    public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+    public void markEdgeNeedLightUpdate(int x, int y, int z, EnumSkyBlock type) {
         if (type == EnumSkyBlock.BLOCK)
             return;
-        int x = pos.getX();
-        int y = pos.getY();
-        int z = pos.getZ();
         Cube cube = this.getCube(x, y, z);
         if (cube == null)
             return;
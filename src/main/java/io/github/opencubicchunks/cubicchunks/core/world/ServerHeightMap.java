@@ -69,6 +69,12 @@ public class ServerHeightMap implements IHeightMap {
 
     private int heightMapLowest;
 
+    /**
+     * Incremented on every change, so that heights copied for asynchronous lighting can be checked for changes without
+     * comparing them
+     */
+    private int modificationCount;
+
     public ServerHeightMap(int[] heightmap) {
         this.ymin = new int[Cube.SIZE * Cube.SIZE];
         this.ymax = new HeightMap(heightmap);
@@ -109,6 +115,10 @@ public class ServerHeightMap implements IHeightMap {
         return getLastSegmentIndex(segments[xzIndex]) % 2 == 0;
     }
 
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+
     // Interface: IHeightMap ----------------------------------------------------------------------------------------
 
     @Override
@@ -117,6 +127,7 @@ public class ServerHeightMap implements IHeightMap {
             return;
         }
         int xzIndex = getIndex(localX, localZ);
+        this.modificationCount++;
 
         // try to stay in no-segments mode as long as we can, this is the simple case
         boolean isOpaque = opacity != 0;
@@ -769,6 +780,7 @@ public class ServerHeightMap implements IHeightMap {
     }
 
     private void readData(DataInputStream in) throws IOException {
+        this.modificationCount++;
         for (int i = 0; i < this.segments.length; i++) {
             this.ymin[i] = in.readInt();
             this.ymax.set(i, in.readInt());
@@ -119,6 +119,11 @@ public class Cube implements ICube {
      * Do neighbor need a sky light update when it is loaded?
      */
     public boolean[] edgeNeedSkyLightUpdate = new boolean[6];
+    /**
+     * Incremented whenever blocks or light in this cube change, so that asynchronously computed light can be discarded
+     * when it was computed from outdated blocks or light
+     */
+    private int lightGeneration = 0;
     /**
      * The world of this cube
      */
@@ -521,6 +526,7 @@ public class Cube implements ICube {
     @Nullable
     public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
         this.isModified = true;
+        this.lightGeneration++;
         return this.storage = ebs;
     }
 
@@ -576,6 +582,7 @@ public class Cube implements ICube {
         this.world.addTileEntities(this.tileEntityMap.values());
         this.world.loadEntities(this.entities.getEntities());
         this.isCubeLoaded = true;
+        ((ICubicWorldInternal) world).getLightingManager().onCubeLoad(this);
         if (!isSurfaceTracked) {
             trackSurface();
         }
@@ -613,6 +620,7 @@ public class Cube implements ICube {
         //first mark as unloaded so that entity list and tile entity map isn't modified while iterating
         //and it also preserves all entities/time entities so they can be saved
         this.isCubeLoaded = false;
+        ((ICubicWorldInternal) world).getLightingManager().onCubeUnload(this);
 
         // tell the world to forget about entities
         this.world.unloadEntities(this.entities.getEntities());
@@ -767,6 +775,18 @@ public class Cube implements ICube {
         this.edgeNeedSkyLightUpdate[side.ordinal()] = true;
     }
 
+    public int getLightGeneration() {
+        return lightGeneration;
+    }
+
+    public void onBlockChanged() {
+        this.lightGeneration++;
+    }
+
+    public void onLightChanged() {
+        this.lightGeneration++;
+    }
+
     public boolean hasBeenTicked() {
         return ticked;
     }
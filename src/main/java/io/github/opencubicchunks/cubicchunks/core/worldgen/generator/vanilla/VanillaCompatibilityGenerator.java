@@ -34,6 +34,7 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IChunkPrimer;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IGameRegistry;
 import io.github.opencubicchunks.cubicchunks.core.util.CompatHandler;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
@@ -41,11 +42,13 @@ import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenHangWatchdog;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.generator.WorldGenUtils;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.init.Biomes;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.biome.Biome;
@@ -61,7 +64,9 @@ import net.minecraft.world.gen.IChunkGenerator;
 import net.minecraftforge.fml.common.IWorldGenerator;
 import net.minecraftforge.fml.common.ObfuscationReflectionHelper;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -78,14 +83,22 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class VanillaCompatibilityGenerator implements ICubeGenerator {
 
+    // each column is 16 cube primers of 8 kB
+    private static final int MAX_CACHED_COLUMNS = 32;
+
     private boolean isInit = false;
     private int worldHeightCubes;
     @Nonnull private final IChunkGenerator vanilla;
     @Nonnull private final World world;
     /**
-     * Last chunk that was generated from the vanilla world gen
+     * Vanilla chunks that have been generated, already sliced into cube primers. Cubes of neighbouring columns are
+     * often generated interleaved, so keep more than one to avoid generating the same vanilla chunk again.
      */
-    private Chunk lastChunk;
+    private final Map<Long, ColumnPrimers> columnPrimers = new LinkedHashMap<Long, ColumnPrimers>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, ColumnPrimers> eldest) {
+            return size() > MAX_CACHED_COLUMNS;
+        }
+    };
     /**
      * We generate all the chunks in the vanilla range at once. This variable prevents infinite recursion
      */
@@ -137,7 +150,7 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         }
         isInit = true;
         // heuristics TODO: add a config that overrides this
-        lastChunk = vanilla.generateChunk(0, 0); // lets scan the chunk at 0, 0
+        Chunk lastChunk = vanilla.generateChunk(0, 0); // lets scan the chunk at 0, 0
 
         int worldHeightBlocks = ((ICubicWorld) world).getMaxGenerationHeight();
         worldHeightCubes = worldHeightBlocks / Cube.SIZE;
@@ -245,19 +258,8 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
                     }
                 }
             } else {
-                // Make vanilla generate a chunk for us to copy
-                if (lastChunk.x != cubeX || lastChunk.z != cubeZ) {
-                    if (CubicChunksConfig.optimizedCompatibilityGenerator&&false) {
-                        try (ICubicWorldInternal.CompatGenerationScope ignored =
-                                     ((ICubicWorldInternal.Server) world).doCompatibilityGeneration()) {
-                            lastChunk = vanilla.generateChunk(cubeX, cubeZ);
-                            ChunkPrimer chunkPrimer = ((IColumnInternal) lastChunk).getCompatGenerationPrimer();
-                            replaceBedrock(chunkPrimer);
-                        }
-                    } else {
-                        lastChunk = vanilla.generateChunk(cubeX, cubeZ);
-                    }
-                }
+                // Make vanilla generate a chunk for us to copy, or take the cube from one that was generated before
+                CubePrimer cubePrimer = takeCubePrimer(cubeX, cubeY, cubeZ);
 
                 if (!optimizationHack) {
                     optimizationHack = true;
@@ -270,44 +272,7 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
                     }
                     optimizationHack = false;
                 }
-
-                // Copy from vanilla, replacing bedrock as appropriate
-                ChunkPrimer chunkPrimer = ((IColumnInternal) lastChunk).getCompatGenerationPrimer();
-                if (chunkPrimer != null) {
-                    return new CubePrimerWrapper(chunkPrimer, cubeY);
-                }
-                ExtendedBlockStorage storage = lastChunk.getBlockStorageArray()[cubeY];
-                if (((ICubicWorld) world).getMaxHeight() == 16) {
-                    if (cubeY != 0) {
-                        storage = null;
-                    } else {
-                        storage = lastChunk.getBlockStorageArray()[4];
-                    }
-                }
-                if (storage != null && !storage.isEmpty()) {
-                    for (int y = 0; y < Cube.SIZE; y++) {
-                        int blockY = Coords.localToBlock(cubeY, y);
-                        for (int z = 0; z < Cube.SIZE; z++) {
-                            for (int x = 0; x < Cube.SIZE; x++) {
-                                IBlockState state = storage.get(x, y, z);
-                                if (state == Blocks.BEDROCK.getDefaultState()) {
-                                    if (y < Cube.SIZE / 2) {
-                                        state = extensionBlockBottom;
-                                    } else {
-                                        state = extensionBlockTop;
-                                    }
-                                    state = WorldGenUtils.getRandomBedrockReplacement(world, rand, state, blockY, 1,
-                                            hasTopBedrock, hasBottomBedrock);
-                                    primer.setBlockState(x, y, z, state);
-                                } else {
-                                    state = WorldGenUtils.getRandomBedrockReplacement(world, rand, state, blockY, 1,
-                                            hasTopBedrock, hasBottomBedrock);
-                                    primer.setBlockState(x, y, z, state);
-                                }
-                            }
-                        }
-                    }
-                }
+                return cubePrimer;
             }
 
             return primer;
@@ -316,32 +281,124 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         }
     }
 
-    private void replaceBedrock(ChunkPrimer chunkPrimer) {
-        for (int y = 0; y < 8; y++) {
-            replaceBedrockAtLayer(chunkPrimer, y);
+    private CubePrimer takeCubePrimer(int cubeX, int cubeY, int cubeZ) {
+        long key = ChunkPos.asLong(cubeX, cubeZ);
+        ColumnPrimers column = columnPrimers.get(key);
+        if (column == null || column.cubes[cubeY] == null) {
+            // not generated yet, or this cube is being generated again
+            column = new ColumnPrimers(generateColumnPrimers(cubeX, cubeZ));
+            columnPrimers.put(key, column);
         }
-        int startY = Coords.localToBlock(worldHeightCubes - 1, 8);
-        int endY = Coords.cubeToMinBlock(worldHeightCubes);
-        for (int y = startY; y < endY; y++) {
-            replaceBedrockAtLayer(chunkPrimer, y);
+        CubePrimer primer = column.cubes[cubeY];
+        column.cubes[cubeY] = null;
+        if (--column.remaining == 0) {
+            columnPrimers.remove(key);
         }
+        return primer;
     }
 
-    private void replaceBedrockAtLayer(ChunkPrimer chunkPrimer, int y) {
-        for (int z = 0; z < Cube.SIZE; z++) {
+    /**
+     * Generate a vanilla chunk and copy all of it into cube primers, replacing bedrock as appropriate
+     */
+    private SlicedCubePrimer[] generateColumnPrimers(int chunkX, int chunkZ) {
+        SlicedCubePrimer[] cubes = new SlicedCubePrimer[worldHeightCubes];
+        for (int cubeY = 0; cubeY < worldHeightCubes; cubeY++) {
+            cubes[cubeY] = new SlicedCubePrimer();
+        }
+        if (CubicChunksConfig.optimizedCompatibilityGenerator) {
+            try (ICubicWorldInternal.CompatGenerationScope ignored =
+                         ((ICubicWorldInternal.Server) world).doCompatibilityGeneration()) {
+                Chunk chunk = vanilla.generateChunk(chunkX, chunkZ);
+                ChunkPrimer chunkPrimer = ((IColumnInternal) chunk).getCompatGenerationPrimer();
+                if (chunkPrimer != null) {
+                    sliceChunkPrimer(((IChunkPrimer) chunkPrimer).getData(), cubes);
+                } else {
+                    // the generator didn't create the chunk from a primer, so the blocks are in the chunk
+                    sliceChunk(chunk, cubes);
+                }
+            }
+        } else {
+            sliceChunk(vanilla.generateChunk(chunkX, chunkZ), cubes);
+        }
+        replaceBedrock(cubes);
+        return cubes;
+    }
+
+    /**
+     * @return Y position of the 16 block section of the vanilla chunk to copy into the cube, or -1 if the cube is empty
+     */
+    private int getVanillaSection(int cubeY) {
+        if (((ICubicWorld) world).getMaxHeight() == 16) {
+            return cubeY == 0 ? 4 : -1;
+        }
+        return cubeY < 16 ? cubeY : -1;
+    }
+
+    private void sliceChunkPrimer(char[] chunkData, SlicedCubePrimer[] cubes) {
+        for (int cubeY = 0; cubeY < cubes.length; cubeY++) {
+            int section = getVanillaSection(cubeY);
+            if (section < 0) {
+                continue;
+            }
+            char[] cubeData = cubes[cubeY].data;
+            int minY = Coords.cubeToMinBlock(section);
+            // ChunkPrimer is indexed x, z, y while cubes are indexed y, z, x, so each column of 16 blocks is contiguous
+            // in the chunk primer
             for (int x = 0; x < Cube.SIZE; x++) {
-                IBlockState state = chunkPrimer.getBlockState(x, y, z);
-                if (state == Blocks.BEDROCK.getDefaultState()) {
-                    if (y < 64) {
-                        chunkPrimer.setBlockState(x, y, z, extensionBlockBottom);
-                    } else {
-                        chunkPrimer.setBlockState(x, y, z, extensionBlockTop);
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    int from = x << 12 | z << 8 | minY;
+                    int to = z << 4 | x;
+                    for (int y = 0; y < Cube.SIZE; y++) {
+                        cubeData[y << 8 | to] = chunkData[from + y];
                     }
                 }
             }
         }
     }
 
+    private void sliceChunk(Chunk chunk, SlicedCubePrimer[] cubes) {
+        for (int cubeY = 0; cubeY < cubes.length; cubeY++) {
+            int section = getVanillaSection(cubeY);
+            ExtendedBlockStorage storage = section < 0 ? null : chunk.getBlockStorageArray()[section];
+            if (storage == null || storage.isEmpty()) {
+                continue;
+            }
+            SlicedCubePrimer primer = cubes[cubeY];
+            for (int y = 0; y < Cube.SIZE; y++) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    for (int x = 0; x < Cube.SIZE; x++) {
+                        primer.setBlockState(x, y, z, storage.get(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace vanilla bedrock with the detected filler blocks, and add bedrock at the bottom and top of the cubic
+     * chunks world height if vanilla has it there. Works on whole 16x16 layers of the cube primers.
+     */
+    @SuppressWarnings("deprecation")
+    private void replaceBedrock(SlicedCubePrimer[] cubes) {
+        int bedrock = Block.BLOCK_STATE_IDS.get(Blocks.BEDROCK.getDefaultState());
+        int worldMinY = ((ICubicWorld) world).getMinHeight();
+        int worldMaxY = ((ICubicWorld) world).getMaxHeight();
+        int middleY = Coords.cubeToMinBlock(worldHeightCubes) / 2;
+        for (int cubeY = 0; cubeY < cubes.length; cubeY++) {
+            SlicedCubePrimer primer = cubes[cubeY];
+            for (int y = 0; y < Cube.SIZE; y++) {
+                int blockY = Coords.localToBlock(cubeY, y);
+                if ((hasBottomBedrock && blockY == worldMinY) || (hasTopBedrock && blockY == worldMaxY - 1)) {
+                    primer.fillLayer(y, Blocks.BEDROCK.getDefaultState());
+                    continue;
+                }
+                if (bedrock <= 0xFFFF) {
+                    primer.replaceInLayer(y, (char) bedrock, blockY < middleY ? extensionBlockBottom : extensionBlockTop);
+                }
+            }
+        }
+    }
+
     @Override
     public void populate(ICube cube) {
         try {
@@ -439,22 +496,58 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         return vanilla.getNearestStructurePos(world, name, pos, findUnexplored);
     }
 
-    private static class CubePrimerWrapper extends CubePrimer {
-        private final ChunkPrimer chunkPrimer;
-        private final int cubeYBase;
+    private static final class ColumnPrimers {
+
+        final CubePrimer[] cubes;
+        int remaining;
+
+        ColumnPrimers(CubePrimer[] cubes) {
+            this.cubes = cubes;
+            this.remaining = cubes.length;
+        }
+    }
+
+    /**
+     * A cube primer with direct access to its data, for copying whole vanilla chunks at once
+     */
+    private static final class SlicedCubePrimer extends CubePrimer {
+
+        // indexed y, z, x like the primer itself
+        final char[] data;
+
+        SlicedCubePrimer() {
+            this(new char[4096]);
+        }
 
-        public CubePrimerWrapper(ChunkPrimer chunkPrimer, int cubeY) {
-            super(null);
-            this.chunkPrimer = chunkPrimer;
-            this.cubeYBase = Coords.cubeToMinBlock(cubeY);
+        private SlicedCubePrimer(char[] data) {
+            super(data);
+            this.data = data;
         }
 
-        public IBlockState getBlockState(int x, int y, int z) {
-            return chunkPrimer.getBlockState(x, y | cubeYBase, z);
+        @SuppressWarnings("deprecation")
+        void fillLayer(int y, IBlockState state) {
+            int id = Block.BLOCK_STATE_IDS.get(state);
+            if (id > 0xFFFF) {
+                for (int i = 0; i < 256; i++) {
+                    setBlockState(i & 15, y, i >> 4, state);
+                }
+                return;
+            }
+            Arrays.fill(data, y << 8, (y + 1) << 8, (char) id);
         }
 
-        public void setBlockState(int x, int y, int z, @Nonnull IBlockState state) {
-            chunkPrimer.setBlockState(x, y | cubeYBase, z, state);
+        @SuppressWarnings("deprecation")
+        void replaceInLayer(int y, char find, IBlockState replacement) {
+            int id = Block.BLOCK_STATE_IDS.get(replacement);
+            for (int i = y << 8, end = (y + 1) << 8; i < end; i++) {
+                if (data[i] == find) {
+                    if (id > 0xFFFF) {
+                        setBlockState(i & 15, y, (i >> 4) & 15, replacement);
+                    } else {
+                        data[i] = (char) id;
+                    }
+                }
+            }
         }
     }
 }
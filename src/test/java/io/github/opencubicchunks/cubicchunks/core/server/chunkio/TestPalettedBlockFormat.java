@@ -0,0 +1,154 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import static org.junit.Assert.*;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.BitArray;
+import net.minecraftforge.common.util.Constants;
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Round trip tests for the paletted cube section format. The container side of reading goes through a mixin accessor,
+ * so these tests pack into a vanilla {@link BitArray} directly, which is what backs the container.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPalettedBlockFormat {
+
+    // global block state IDs used by the tests start here, 0 is air
+    private static final int FIRST_ID = 1000;
+
+    @Test
+    public void testBitsForPaletteSize() {
+        int[] sizes = {1, 2, 3, 4, 5, 16, 17, 256};
+        int[] bits = {0, 1, 2, 2, 4, 4, 8, 8};
+        for (int i = 0; i < sizes.length; i++) {
+            int[] ids = blocks(sizes[i], false);
+            NBTTagCompound section = new NBTTagCompound();
+            assertTrue(PalettedBlockFormat.write(j -> ids[j], section));
+            assertEquals("bits for " + sizes[i] + " palette entries", bits[i], section.getByte("Bits"));
+            assertEquals(sizes[i], section.getIntArray("Palette").length);
+            assertEquals(bits[i] != 0, section.hasKey("BlockStates", Constants.NBT.TAG_BYTE_ARRAY));
+            if (bits[i] != 0) {
+                assertEquals(4096 * bits[i] / 8, section.getByteArray("BlockStates").length);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (int size : new int[]{1, 2, 4, 16, 256}) {
+            for (boolean withAir : new boolean[]{false, true}) {
+                int[] ids = blocks(size, withAir);
+                NBTTagCompound section = new NBTTagCompound();
+                assertTrue(PalettedBlockFormat.write(i -> ids[i], section));
+                assertTrue(PalettedBlockFormat.isPaletted(section));
+
+                int containerBits = PalettedBlockFormat.containerBitsFor(size, withAir);
+                if (containerBits < 0) {
+                    // a full palette without air, see testPerBlockFallback
+                    continue;
+                }
+                int[] palette = section.getIntArray("Palette");
+                // the container has air at palette index 0, other entries follow in section palette order
+                long[] containerIds = new long[palette.length];
+                int next = 1;
+                for (int i = 0; i < palette.length; i++) {
+                    containerIds[i] = palette[i] == 0 ? 0 : next++;
+                }
+                BitArray storage = new BitArray(containerBits, 4096);
+                byte[] data = section.getByte("Bits") == 0 ? null : section.getByteArray("BlockStates");
+                PalettedBlockFormat.fillStorage(data, section.getByte("Bits"), containerIds, containerBits,
+                        storage.getBackingLongArray());
+
+                for (int i = 0; i < 4096; i++) {
+                    int index = (int) indexOf(containerIds, storage.getAt(i));
+                    assertEquals("block " + i + " with " + size + " palette entries", ids[i], palette[index]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPerBlockFallback() {
+        assertEquals(4, PalettedBlockFormat.containerBitsFor(16, true));
+        assertEquals(8, PalettedBlockFormat.containerBitsFor(16, false));
+        assertEquals(8, PalettedBlockFormat.containerBitsFor(256, true));
+        assertEquals(-1, PalettedBlockFormat.containerBitsFor(256, false));
+
+        int[] ids = blocks(256, false);
+        NBTTagCompound section = new NBTTagCompound();
+        assertTrue(PalettedBlockFormat.write(i -> ids[i], section));
+        int[] paletteIds = section.getIntArray("Palette");
+        Integer[] palette = new Integer[paletteIds.length];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = paletteIds[i];
+        }
+        Integer air = 0;
+        int[] read = new int[4096];
+        PalettedBlockFormat.readPerBlock(section.getByteArray("BlockStates"), section.getByte("Bits"), palette, air,
+                (x, y, z, state) -> read[y << 8 | z << 4 | x] = state);
+        assertArrayEquals(ids, read);
+    }
+
+    @Test
+    public void testTooManyPaletteEntries() {
+        int[] ids = blocks(257, false);
+        NBTTagCompound section = new NBTTagCompound();
+        assertFalse(PalettedBlockFormat.write(i -> ids[i], section));
+        assertTrue(section.hasNoTags());
+    }
+
+    /**
+     * @return global block state IDs of a section that uses exactly the given number of different states, randomly
+     * placed. With air, the first state is air.
+     */
+    private static int[] blocks(int paletteSize, boolean withAir) {
+        Random rand = new Random(paletteSize);
+        int[] ids = new int[4096];
+        for (int i = 0; i < ids.length; i++) {
+            // every state is used at least once
+            int state = i < paletteSize ? i : rand.nextInt(paletteSize);
+            ids[i] = withAir && state == 0 ? 0 : FIRST_ID + state;
+        }
+        return ids;
+    }
+
+    private static long indexOf(long[] values, long value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        throw new AssertionError("Value " + value + " is not in the palette");
+    }
+}